@@ -0,0 +1,128 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.hardware.Camera;
+import android.hardware.Camera.AutoFocusCallback;
+import android.hardware.Camera.CameraInfo;
+import android.hardware.Camera.PreviewCallback;
+import android.hardware.Camera.Size;
+import android.view.SurfaceHolder;
+
+/**
+ * {@link CameraDevice} backed by a real {@link Camera}.
+ */
+class AndroidCameraDevice implements CameraDevice {
+
+	private final Camera camera;
+	private final CameraInfo info;
+
+	private AndroidCameraDevice(Camera camera, CameraInfo info) {
+		this.camera = camera;
+		this.info = info;
+	}
+
+	/**
+	 * @return The opened camera, or null if it is in use or does not exist.
+	 */
+	static AndroidCameraDevice open(int id) {
+		Camera camera;
+		try {
+			camera = Camera.open(id);
+		} catch (RuntimeException e) {
+			return null;
+		}
+		if (camera == null) {
+			return null;
+		}
+
+		CameraInfo info = new CameraInfo();
+		Camera.getCameraInfo(id, info);
+		return new AndroidCameraDevice(camera, info);
+	}
+
+	@Override
+	public void release() {
+		camera.release();
+	}
+
+	@Override
+	public void startPreview() {
+		camera.startPreview();
+	}
+
+	@Override
+	public void stopPreview() {
+		camera.stopPreview();
+	}
+
+	@Override
+	public void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+		camera.setPreviewDisplay(holder);
+	}
+
+	@Override
+	public void setPreviewCallback(PreviewCallback cb) {
+		camera.setPreviewCallback(cb);
+	}
+
+	@Override
+	public void autoFocus(AutoFocusCallback cb) {
+		camera.autoFocus(cb);
+	}
+
+	@Override
+	public void cancelAutoFocus() {
+		camera.cancelAutoFocus();
+	}
+
+	@Override
+	public void setDisplayOrientation(int degrees) {
+		camera.setDisplayOrientation(degrees);
+	}
+
+	@Override
+	public boolean isFrontFacing() {
+		return info.facing == CameraInfo.CAMERA_FACING_FRONT;
+	}
+
+	@Override
+	public int getSensorOrientation() {
+		return info.orientation;
+	}
+
+	@Override
+	public List<int[]> getSupportedPreviewSizes() {
+		List<Size> sizes = camera.getParameters().getSupportedPreviewSizes();
+		if (sizes == null) {
+			return null;
+		}
+
+		List<int[]> result = new ArrayList<int[]>(sizes.size());
+		for (Size size : sizes) {
+			result.add(new int[] { size.width, size.height });
+		}
+		return result;
+	}
+
+	@Override
+	public void setPreviewSize(int width, int height) {
+		Camera.Parameters parameters = camera.getParameters();
+		parameters.setPreviewSize(width, height);
+		camera.setParameters(parameters);
+	}
+
+	@Override
+	public List<int[]> getSupportedPreviewFpsRanges() {
+		return camera.getParameters().getSupportedPreviewFpsRange();
+	}
+
+	@Override
+	public void setPreviewFpsRange(int min, int max) {
+		Camera.Parameters parameters = camera.getParameters();
+		parameters.setPreviewFpsRange(min, max);
+		camera.setParameters(parameters);
+	}
+}
@@ -0,0 +1,407 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.sourceforge.zbar.Image;
+import net.sourceforge.zbar.ImageScanner;
+import net.sourceforge.zbar.Symbol;
+import net.sourceforge.zbar.SymbolSet;
+
+/**
+ * Decodes stored images on a fixed pool of worker threads, each owning its
+ * own {@link ImageScanner}.
+ * <p>
+ * Images are handed over as raw Y800 (8 bit luma) buffers, as binary PGM
+ * ("P5") byte arrays or as PGM / raw Y800 files. Only the luma plane is ever
+ * read, straight from the stream into a buffer that the worker reuses for
+ * every image of the same size. The submit methods block once
+ * <code>queueCapacity</code> images are waiting, so a producer walking a
+ * large directory cannot run ahead of the decoders. Results are delivered to
+ * the {@link BatchResultListener} on the worker thread as soon as each image
+ * has been scanned.
+ * <p>
+ * Nothing in here depends on the Android framework, so the same code can be
+ * run and timed on a desktop JVM against a ZBar JNI build for that platform.
+ */
+public class BatchScanner {
+
+	static {
+		try {
+			System.loadLibrary("iconv");
+		} catch (UnsatisfiedLinkError e) {
+			// Desktop builds of the ZBar JNI library get iconv from libc.
+		}
+	}
+
+	public interface BatchResultListener {
+		/**
+		 * Called once per submitted image. <code>symData</code> is null and
+		 * <code>symType</code> is {@link Symbol#NONE} if no symbol was found.
+		 */
+		public void onResult(Object tag, String symData, int symType);
+
+		/**
+		 * Called instead of {@link #onResult} if the image could not be read
+		 * or scanned, including when it was too large to fit in memory. Also
+		 * called after {@link #onResult} with whatever it threw, so a tag may
+		 * then see both callbacks.
+		 */
+		public void onError(Object tag, Throwable error);
+	}
+
+	// Queued once per worker by shutdown()
+	private static final Object SHUTDOWN = new Object();
+
+	private static final FileFilter PGM_FILTER = new FileFilter() {
+		@Override
+		public boolean accept(File file) {
+			return file.isFile() && file.getName().toLowerCase().endsWith(".pgm");
+		}
+	};
+
+	private final int[] mScanModes;
+	private final BatchResultListener mListener;
+
+	private final BlockingQueue<Object> mQueue;
+	private final Worker[] mWorkers;
+	private final ReadWriteLock mShutdownLock = new ReentrantReadWriteLock();
+	// Guarded by mShutdownLock
+	private boolean mShutdown;
+
+	private final AtomicLong mScannedImages = new AtomicLong();
+	private final AtomicLong mScanNanos = new AtomicLong();
+
+	/**
+	 * @param scanModes
+	 *            Symbol types to enable, or null for all. See
+	 *            {@link ImageScannerFactory#create(int[])}.
+	 * @param threadCount
+	 *            Number of worker threads, and therefore of scanners.
+	 * @param queueCapacity
+	 *            Number of submitted images that may wait for a worker before
+	 *            the submit methods block.
+	 */
+	public BatchScanner(int[] scanModes, int threadCount, int queueCapacity, BatchResultListener listener) {
+		if (threadCount < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("threadCount and queueCapacity must be positive");
+		}
+
+		mScanModes = scanModes;
+		mListener = listener;
+		mQueue = new ArrayBlockingQueue<Object>(queueCapacity);
+
+		mWorkers = new Worker[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			mWorkers[i] = new Worker("ZBarScanner/BatchScanner-" + i);
+			mWorkers[i].start();
+		}
+	}
+
+	/**
+	 * Queues a raw Y800 buffer. The buffer is used as is and must not be
+	 * modified until its result has been delivered.
+	 */
+	public void submitY800(final byte[] data, final int width, final int height, Object tag)
+			throws InterruptedException {
+		checkSize(width, height);
+		if (data.length < width * height) {
+			throw new IllegalArgumentException("Buffer is smaller than " + width + "x" + height);
+		}
+
+		enqueue(new Job(tag) {
+			@Override
+			Image load(Worker worker) {
+				return newImage(width, height, data);
+			}
+		});
+	}
+
+	/**
+	 * Queues a binary PGM ("P5") image held in memory. 8 and 16 bit images are
+	 * accepted; samples are scaled to 0-255 whatever the maximum value.
+	 */
+	public void submitPgm(final byte[] pgm, Object tag) throws InterruptedException {
+		enqueue(new Job(tag) {
+			@Override
+			Image load(Worker worker) throws IOException {
+				return worker.readPgm(new ByteArrayInputStream(pgm));
+			}
+		});
+	}
+
+	/**
+	 * Queues a binary PGM ("P5") file.
+	 */
+	public void submitFile(final File file, Object tag) throws InterruptedException {
+		enqueue(new Job(tag) {
+			@Override
+			Image load(Worker worker) throws IOException {
+				InputStream in = new BufferedInputStream(new FileInputStream(file));
+				try {
+					return worker.readPgm(in);
+				} finally {
+					in.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues a headerless Y800 file of the given dimensions.
+	 */
+	public void submitFile(final File file, final int width, final int height, Object tag)
+			throws InterruptedException {
+		checkSize(width, height);
+
+		enqueue(new Job(tag) {
+			@Override
+			Image load(Worker worker) throws IOException {
+				InputStream in = new FileInputStream(file);
+				try {
+					byte[] luma = worker.pgm.obtainBuffer(width * height);
+					PgmReader.readFully(in, luma, 0, luma.length);
+					return newImage(width, height, luma);
+				} finally {
+					in.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues every <code>.pgm</code> file in <code>dir</code>, using the
+	 * {@link File} as tag.
+	 *
+	 * @return The number of files queued.
+	 */
+	public int submitDirectory(File dir) throws IOException, InterruptedException {
+		File[] files = dir.listFiles(PGM_FILTER);
+		if (files == null) {
+			throw new IOException("Unable to list " + dir);
+		}
+
+		for (File file : files) {
+			submitFile(file, file);
+		}
+		return files.length;
+	}
+
+	/**
+	 * Lets the workers finish the images already queued and then stops them.
+	 * No more images may be submitted afterwards. Waits for submit calls that
+	 * are blocked on a full queue, so every image that was accepted is still
+	 * reported. Must not be called from the {@link BatchResultListener}.
+	 */
+	public void shutdown() throws InterruptedException {
+		Lock lock = mShutdownLock.writeLock();
+		lock.lockInterruptibly();
+		try {
+			if (mShutdown) {
+				return;
+			}
+			mShutdown = true;
+
+			for (int i = 0; i < mWorkers.length; i++) {
+				mQueue.put(SHUTDOWN);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for the workers to stop after {@link #shutdown()}.
+	 *
+	 * @return false if the timeout elapsed first.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Worker worker : mWorkers) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+			if (worker.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of images scanned so far, including those without a
+	 *         result.
+	 */
+	public long getScannedImageCount() {
+		return mScannedImages.get();
+	}
+
+	/**
+	 * @return The time spent inside {@link ImageScanner#scanImage(Image)},
+	 *         summed over all workers.
+	 */
+	public long getTotalScanTime(TimeUnit unit) {
+		return unit.convert(mScanNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	private void enqueue(Job job) throws InterruptedException {
+		// Held while blocked in put(), so that shutdown() cannot queue the
+		// SHUTDOWN markers ahead of a job that was accepted.
+		Lock lock = mShutdownLock.readLock();
+		lock.lockInterruptibly();
+		try {
+			if (mShutdown) {
+				throw new IllegalStateException("BatchScanner has been shut down");
+			}
+			mQueue.put(job);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static void checkSize(int width, int height) {
+		if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+		}
+	}
+
+	private static Image newImage(int width, int height, byte[] luma) {
+		Image image = new Image(width, height, "Y800");
+		image.setData(luma);
+		return image;
+	}
+
+	private static abstract class Job {
+		final Object tag;
+
+		Job(Object tag) {
+			this.tag = tag;
+		}
+
+		abstract Image load(Worker worker) throws IOException;
+	}
+
+	private class Worker extends Thread {
+
+		// Reused between images of the same size. The previous Image is
+		// always destroyed before its buffer is refilled.
+		final PgmReader pgm = new PgmReader();
+
+		Worker(String name) {
+			super(name);
+		}
+
+		@Override
+		public void run() {
+			ImageScanner scanner;
+			Throwable scannerError = null;
+			try {
+				scanner = ImageScannerFactory.create(mScanModes);
+			} catch (Throwable t) {
+				// Most likely the native library is missing. Keep taking jobs
+				// and failing them, so that producers don't block forever.
+				scanner = null;
+				scannerError = t;
+			}
+
+			try {
+				while (true) {
+					Object next;
+					try {
+						next = mQueue.take();
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					if (next == SHUTDOWN) {
+						return;
+					}
+
+					Job job = (Job) next;
+					if (scanner == null) {
+						notifyError(job.tag, scannerError);
+					} else {
+						scan(scanner, job);
+					}
+				}
+			} finally {
+				if (scanner != null) {
+					scanner.destroy();
+				}
+			}
+		}
+
+		private void scan(ImageScanner scanner, Job job) {
+			String symData = null;
+			int symType = Symbol.NONE;
+			try {
+				Image image = job.load(this);
+				try {
+					long start = System.nanoTime();
+					int result = scanner.scanImage(image);
+					mScanNanos.addAndGet(System.nanoTime() - start);
+					mScannedImages.incrementAndGet();
+
+					if (result != 0) {
+						SymbolSet syms = scanner.getResults();
+						for (Symbol sym : syms) {
+							String data = sym.getData();
+							if (data != null && data.length() > 0) {
+								symData = data;
+								symType = sym.getType();
+								break;
+							}
+						}
+					}
+				} finally {
+					image.destroy();
+				}
+			} catch (OutOfMemoryError e) {
+				// Drop the buffers so the next, hopefully smaller, image can
+				// still be read.
+				pgm.releaseBuffers();
+				notifyError(job.tag, e);
+				return;
+			} catch (IOException e) {
+				notifyError(job.tag, e);
+				return;
+			} catch (RuntimeException e) {
+				notifyError(job.tag, e);
+				return;
+			}
+
+			try {
+				mListener.onResult(job.tag, symData, symType);
+			} catch (Throwable t) {
+				notifyError(job.tag, t);
+			}
+		}
+
+		private void notifyError(Object tag, Throwable error) {
+			try {
+				mListener.onError(tag, error);
+			} catch (Throwable t) {
+				// Nothing left to report to; keep the worker alive.
+			}
+		}
+
+		Image readPgm(InputStream in) throws IOException {
+			byte[] luma = pgm.read(in);
+			return newImage(pgm.getWidth(), pgm.getHeight(), luma);
+		}
+	}
+}
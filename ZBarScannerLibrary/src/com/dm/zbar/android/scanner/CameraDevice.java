@@ -0,0 +1,57 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.IOException;
+import java.util.List;
+
+import android.hardware.Camera.AutoFocusCallback;
+import android.hardware.Camera.PreviewCallback;
+import android.view.SurfaceHolder;
+
+/**
+ * The part of {@link android.hardware.Camera} that {@link CameraWrapper}
+ * drives, so the lifecycle can be exercised without camera hardware. Calls
+ * have the same contract as on {@link android.hardware.Camera}; in particular
+ * none may be made after {@link #release()}.
+ */
+interface CameraDevice {
+
+	public void release();
+
+	public void startPreview();
+
+	public void stopPreview();
+
+	public void setPreviewDisplay(SurfaceHolder holder) throws IOException;
+
+	public void setPreviewCallback(PreviewCallback cb);
+
+	public void autoFocus(AutoFocusCallback cb);
+
+	public void cancelAutoFocus();
+
+	public void setDisplayOrientation(int degrees);
+
+	public boolean isFrontFacing();
+
+	/**
+	 * @return Clockwise rotation of the sensor image relative to the device's
+	 *         natural orientation, in degrees.
+	 */
+	public int getSensorOrientation();
+
+	/**
+	 * @return Supported preview sizes as <code>{width, height}</code> pairs,
+	 *         or null.
+	 */
+	public List<int[]> getSupportedPreviewSizes();
+
+	public void setPreviewSize(int width, int height);
+
+	/**
+	 * @return Supported frame rate ranges as <code>{min, max}</code> pairs in
+	 *         frames per 1000 seconds, or null.
+	 */
+	public List<int[]> getSupportedPreviewFpsRanges();
+
+	public void setPreviewFpsRange(int min, int max);
+}
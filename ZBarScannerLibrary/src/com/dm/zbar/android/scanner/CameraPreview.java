@@ -114,14 +114,19 @@ public class CameraPreview extends ViewGroup implements SurfaceHolder.Callback {
 
 			int previewWidth = width;
 			int previewHeight = height;
-			if (mCamera != null && mCamera.previewSize != null) {
-				if (mCamera.cameraDisplayOrientation == 90 || mCamera.cameraDisplayOrientation == 270) {
-					// Switch height and width so the view is in portrait.
-					previewWidth = mCamera.previewSize.height;
-					previewHeight = mCamera.previewSize.width;
-				} else {
-					previewWidth = mCamera.previewSize.width;
-					previewHeight = mCamera.previewSize.height;
+			final CameraWrapper camera = mCamera;
+			if (camera != null) {
+				// Read the configuration once, so size and orientation match.
+				final CameraWrapper.Configuration config = camera.getConfiguration();
+				if (config.hasPreviewSize()) {
+					if (config.isPortrait()) {
+						// Switch height and width so the view is in portrait.
+						previewWidth = config.previewHeight;
+						previewHeight = config.previewWidth;
+					} else {
+						previewWidth = config.previewWidth;
+						previewHeight = config.previewHeight;
+					}
 				}
 			}
 
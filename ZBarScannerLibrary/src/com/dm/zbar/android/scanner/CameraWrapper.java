@@ -2,14 +2,13 @@ package com.dm.zbar.android.scanner;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.hardware.Camera;
 import android.hardware.Camera.AutoFocusCallback;
-import android.hardware.Camera.CameraInfo;
 import android.hardware.Camera.PreviewCallback;
-import android.hardware.Camera.Size;
 import android.hardware.SensorManager;
 import android.util.Log;
 import android.view.OrientationEventListener;
@@ -17,51 +16,147 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.WindowManager;
 
+/**
+ * Owns a {@link Camera} through its lifecycle.
+ * <p>
+ * The lifecycle is an explicit state machine ({@link #STATE_CLOSED},
+ * {@link #STATE_OPENING}, {@link #STATE_OPEN}, {@link #STATE_PREVIEWING},
+ * {@link #STATE_RELEASING}) advanced with atomic compare-and-set transitions,
+ * so a call that arrives in the wrong state is simply ignored. Preview size
+ * and display orientation are published together as an immutable
+ * {@link Configuration}; readers such as {@link CameraPreview#onLayout} and
+ * the preview callback only do a volatile read and never block. Every call
+ * into the camera is made on the control path under a private lock, so none
+ * can reach a camera that {@link #release()} has already released.
+ * <p>
+ * The camera is reached through {@link CameraDevice}; tests substitute
+ * {@link #openDevice} and {@link #getDisplayRotation}.
+ */
 public class CameraWrapper {
 
-	private final String LOG_TAG = "ZBarScanner/CameraPreview";
+	public static final int STATE_CLOSED = 0;
+	public static final int STATE_OPENING = 1;
+	public static final int STATE_OPEN = 2;
+	public static final int STATE_PREVIEWING = 3;
+	public static final int STATE_RELEASING = 4;
 
-	private Context appContext;
+	/**
+	 * Snapshot of the settings the camera is currently delivering frames
+	 * with.
+	 */
+	public static final class Configuration {
 
-	int id;
-	private Camera camera;
+		static final Configuration EMPTY = new Configuration(0, 0, 0, -1);
 
-	private List<Size> supportedPreviewSizes;
-	Size previewSize;
+		/** Preview size in camera coordinates, 0 if not known yet */
+		public final int previewWidth;
+		public final int previewHeight;
 
-	int cameraDisplayOrientation;
-	private int lastRotation = -1;
+		/** Clockwise rotation of the preview on screen, in degrees */
+		public final int displayOrientation;
 
-	private OrientationEventListener orientationEventListener;
+		// Display rotation (Surface.ROTATION_*) the orientation was computed
+		// for, or -1.
+		final int rotation;
+
+		Configuration(int previewWidth, int previewHeight, int displayOrientation, int rotation) {
+			this.previewWidth = previewWidth;
+			this.previewHeight = previewHeight;
+			this.displayOrientation = displayOrientation;
+			this.rotation = rotation;
+		}
 
-	// Needed for preview size optimization
-	private boolean optimizing;
+		public boolean hasPreviewSize() {
+			return previewWidth > 0 && previewHeight > 0;
+		}
 
-	int targetWidth;
-	int targetHeight;
+		public boolean isPortrait() {
+			return displayOrientation == 90 || displayOrientation == 270;
+		}
+
+		/**
+		 * @return The length of an NV21 preview frame of this size.
+		 */
+		public int getFrameLength() {
+			return previewWidth * previewHeight * 3 / 2;
+		}
+	}
+
+	private final String LOG_TAG = "ZBarScanner/CameraPreview";
 
-	private boolean previewStarted;
-	private boolean autofocusRunning;
+	final int id;
+
+	private final AtomicInteger state = new AtomicInteger(STATE_CLOSED);
+	private volatile CameraDevice camera;
+	private volatile Context appContext;
+	private volatile Configuration configuration = Configuration.EMPTY;
+
+	private final Object controlLock = new Object();
+	// Whether the camera is actually previewing. Guarded by controlLock;
+	// unlike the state, it isn't changed by release() before the lock is
+	// taken.
+	private boolean previewRunning;
+
+	private volatile int targetWidth;
+	private volatile int targetHeight;
+
+	private volatile boolean autofocusRunning;
+
+	private OrientationEventListener orientationEventListener;
 
 	public CameraWrapper(int id) {
 		this.id = id;
 	}
 
+	public int getState() {
+		return state.get();
+	}
+
+	/**
+	 * @return The current configuration. Never null.
+	 */
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
 	public boolean open(Context appContext) {
+		if (!state.compareAndSet(STATE_CLOSED, STATE_OPENING)) {
+			Log.e(LOG_TAG, "Camera is already open");
+			return false;
+		}
+
 		this.appContext = appContext;
+
+		CameraDevice opened;
 		try {
 			// Attempt to get a Camera instance
-			camera = Camera.open(id);
-		} catch (Exception e) {
+			opened = openDevice(id);
+		} catch (RuntimeException e) {
+			opened = null;
+		}
+		if (opened == null) {
 			// Camera is not available (in use or does not exist)
 			Log.e(LOG_TAG, "Failed to open camera");
+			this.appContext = null;
+			state.set(STATE_CLOSED);
 			return false;
 		}
 
-		fixCameraDisplayOrientation();
-
-		if (targetWidth > 0 && targetHeight > 0) {
-			updatePreviewSize();
+		synchronized (controlLock) {
+			camera = opened;
+		}
+		updateConfiguration(true);
+
+		if (!state.compareAndSet(STATE_OPENING, STATE_OPEN)) {
+			// release() was called while we were opening.
+			synchronized (controlLock) {
+				camera = null;
+				configuration = Configuration.EMPTY;
+				opened.release();
+			}
+			this.appContext = null;
+			state.set(STATE_CLOSED);
+			return false;
 		}
 
 		// Register an OrientationEventListener in order to handle
@@ -70,47 +165,70 @@ public class CameraWrapper {
 		// does not happen and so the activity does not restart (which would
 		// normally rotate the camera view).
 
-		if (orientationEventListener == null) {
+		if (orientationEventListener == null && appContext != null) {
 			orientationEventListener = new OrientationEventListener(appContext, SensorManager.SENSOR_DELAY_NORMAL) {
 
 				@Override
 				public void onOrientationChanged(int _) {
-					synchronized (CameraWrapper.this) {
-						fixCameraDisplayOrientation();
-					}
+					fixCameraDisplayOrientation();
 				}
 			};
 		}
 
-		if (orientationEventListener.canDetectOrientation()) {
+		if (orientationEventListener != null && orientationEventListener.canDetectOrientation()) {
 			orientationEventListener.enable();
 		}
 
 		return true;
 	}
 
-	void setTargetPreviewSize(int width, int height) throws IllegalStateException {
-		targetWidth = width;
-		targetHeight = height;
+	/**
+	 * Opens the camera with the given id.
+	 *
+	 * @return The camera, or null if it is not available.
+	 */
+	CameraDevice openDevice(int id) {
+		return AndroidCameraDevice.open(id);
+	}
 
-		if (camera != null) {
-			updatePreviewSize();
+	/**
+	 * @return The current display rotation as one of the
+	 *         <code>Surface.ROTATION_*</code> constants, or -1 if unknown.
+	 */
+	int getDisplayRotation() {
+		Context context = appContext;
+		if (context == null) {
+			return -1;
 		}
-	}
 
-	private void updatePreviewSize() {
-		supportedPreviewSizes = camera.getParameters().getSupportedPreviewSizes();
-		optimizePreviewSize();
+		WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+		return wm.getDefaultDisplay().getRotation();
+	}
 
-		if (previewSize != null && !supportedPreviewSizes.contains(previewSize)) {
-			// The set preview size is no longer available. We'll have to get a
-			// new one.
-			previewSize = null;
+	void setTargetPreviewSize(int width, int height) {
+		if (width == targetWidth && height == targetHeight) {
+			return;
 		}
+		targetWidth = width;
+		targetHeight = height;
+
+		updateConfiguration(true);
 	}
 
-	public synchronized void release() {
-		appContext = null;
+	public void release() {
+		while (true) {
+			int current = state.get();
+			if (current == STATE_CLOSED || current == STATE_RELEASING) {
+				return;
+			}
+			if (state.compareAndSet(current, STATE_RELEASING)) {
+				if (current == STATE_OPENING) {
+					// open() notices and releases the camera itself.
+					return;
+				}
+				break;
+			}
+		}
 
 		if (orientationEventListener != null) {
 			orientationEventListener.disable();
@@ -118,163 +236,270 @@ public class CameraWrapper {
 
 		// Because the Camera object is a shared resource, it's very
 		// important to release it when the activity is paused.
-		if (camera != null) {
-			camera.release();
+		synchronized (controlLock) {
+			CameraDevice released = camera;
 			camera = null;
+			configuration = Configuration.EMPTY;
+			autofocusRunning = false;
+			previewRunning = false;
+			if (released != null) {
+				released.release();
+			}
 		}
-		lastRotation = -1;
+		appContext = null;
+
+		state.set(STATE_CLOSED);
 	}
 
-	synchronized void startPreview() {
-		if (!previewStarted) {
-			fixCameraDisplayOrientation();
-			if (camera != null) {
-				previewStarted = true;
-				autofocusRunning = true;
+	void startPreview() {
+		if (state.get() != STATE_OPEN) {
+			return;
+		}
 
-				try {
-					camera.startPreview();
-				} catch (RuntimeException e) {
-					Log.e(LOG_TAG, "Failed to start camera preview", e);
-				}
+		fixCameraDisplayOrientation();
+
+		synchronized (controlLock) {
+			CameraDevice camera = this.camera;
+			if (camera == null || !state.compareAndSet(STATE_OPEN, STATE_PREVIEWING)) {
+				return;
+			}
+
+			autofocusRunning = true;
+			try {
+				camera.startPreview();
+				previewRunning = true;
+			} catch (RuntimeException e) {
+				Log.e(LOG_TAG, "Failed to start camera preview", e);
+				autofocusRunning = false;
+				state.compareAndSet(STATE_PREVIEWING, STATE_OPEN);
 			}
 		}
 	}
 
-	synchronized void stopPreview() {
-		if (camera != null) {
-			camera.stopPreview();
+	void stopPreview() {
+		synchronized (controlLock) {
+			if (!state.compareAndSet(STATE_PREVIEWING, STATE_OPEN)) {
+				return;
+			}
+
+			CameraDevice camera = this.camera;
+			if (camera != null) {
+				camera.stopPreview();
+				previewRunning = false;
+			}
 		}
-		previewStarted = false;
 	}
 
-	synchronized void setPreviewDisplay(SurfaceHolder holder) throws IOException {
-		if (camera != null) {
-			camera.setPreviewDisplay(holder);
+	void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+		synchronized (controlLock) {
+			CameraDevice camera = this.camera;
+			if (camera != null) {
+				camera.setPreviewDisplay(holder);
+			}
 		}
 	}
 
-	synchronized void autoFocus(AutoFocusCallback cb) {
-		if (camera != null && autofocusRunning) {
-			camera.autoFocus(cb);
+	void autoFocus(AutoFocusCallback cb) {
+		synchronized (controlLock) {
+			CameraDevice camera = this.camera;
+			if (camera != null && autofocusRunning && state.get() == STATE_PREVIEWING) {
+				try {
+					camera.autoFocus(cb);
+				} catch (RuntimeException e) {
+					Log.e(LOG_TAG, "Failed to start auto focus", e);
+				}
+			}
 		}
 	}
 
-	synchronized void cancelAutoFocus() {
-		if (camera != null) {
-			autofocusRunning = false;
-			camera.cancelAutoFocus();
+	void cancelAutoFocus() {
+		synchronized (controlLock) {
+			CameraDevice camera = this.camera;
+			if (camera != null) {
+				autofocusRunning = false;
+				camera.cancelAutoFocus();
+			}
 		}
 	}
 
-	public synchronized void setPreviewCallback(PreviewCallback cb) {
-		if (camera != null) {
-			camera.setPreviewCallback(cb);
+	public void setPreviewCallback(PreviewCallback cb) {
+		synchronized (controlLock) {
+			CameraDevice camera = this.camera;
+			if (camera != null) {
+				camera.setPreviewCallback(cb);
+			}
 		}
 	}
 
-	boolean fixCameraDisplayOrientation() {
-		synchronized (this) {
+	/**
+	 * Switches the preview to the slowest (reduced) or fastest supported frame
+	 * rate range.
+	 */
+	void setReducedFrameRate(boolean reduced) {
+		synchronized (controlLock) {
+			CameraDevice camera = this.camera;
 			if (camera == null) {
-				return false;
+				return;
 			}
-		}
 
-		WindowManager wm = (WindowManager) appContext.getSystemService(Context.WINDOW_SERVICE);
-		int rotation = wm.getDefaultDisplay().getRotation();
-		synchronized (this) {
-			if (lastRotation != -1 && rotation == lastRotation) {
-				return false;
+			try {
+				List<int[]> ranges = camera.getSupportedPreviewFpsRanges();
+				if (ranges == null || ranges.isEmpty()) {
+					return;
+				}
+
+				int[] chosen = null;
+				for (int[] range : ranges) {
+					int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+					if (chosen == null || (reduced ? max < chosen[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]
+							: max > chosen[Camera.Parameters.PREVIEW_FPS_MAX_INDEX])) {
+						chosen = range;
+					}
+				}
+
+				camera.setPreviewFpsRange(chosen[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+						chosen[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+			} catch (RuntimeException e) {
+				Log.e(LOG_TAG, "Failed to change preview frame rate", e);
 			}
 		}
+	}
 
-		int degrees;
-		switch (rotation) {
-			case Surface.ROTATION_0:
-				degrees = 0;
-				break;
-			case Surface.ROTATION_90:
-				degrees = 90;
-				break;
-			case Surface.ROTATION_180:
-				degrees = 180;
-				break;
-			case Surface.ROTATION_270:
-				degrees = 270;
-				break;
-			default:
-				degrees = 0;
-				break;
+	boolean fixCameraDisplayOrientation() {
+		return updateConfiguration(false);
+	}
+
+	/**
+	 * Recomputes display orientation and, if requested, the preview size,
+	 * applies whatever changed to the camera and publishes the new
+	 * {@link Configuration}.
+	 *
+	 * @return true if the configuration changed.
+	 */
+	private boolean updateConfiguration(boolean resize) {
+		int rotation = getDisplayRotation();
+		if (rotation < 0) {
+			return false;
 		}
 
-		CameraInfo info = new CameraInfo();
-		Camera.getCameraInfo(id, info);
+		synchronized (controlLock) {
+			CameraDevice camera = this.camera;
+			if (camera == null) {
+				return false;
+			}
 
-		int result;
-		if (info.facing == CameraInfo.CAMERA_FACING_FRONT) {
-			// Front-facing
-			cameraDisplayOrientation = result = (info.orientation + degrees) % 360;
-			// Compensate the mirror image
-			result = (360 - result) % 360;
-		} else {
-			// Back-facing
-			cameraDisplayOrientation = result = (info.orientation - degrees + 360) % 360;
-		}
+			Configuration current = configuration;
+			boolean rotate = rotation != current.rotation;
+			if (!rotate && !resize) {
+				return false;
+			}
 
-		synchronized (this) {
-			if (camera != null) {
-				if (!previewStarted) {
-					camera.setDisplayOrientation(result);
+			int cameraDisplayOrientation = current.displayOrientation;
+			int result = 0;
+			if (rotate) {
+				int degrees = toDegrees(rotation);
+				if (camera.isFrontFacing()) {
+					// Front-facing
+					cameraDisplayOrientation = result = (camera.getSensorOrientation() + degrees) % 360;
+					// Compensate the mirror image
+					result = (360 - result) % 360;
 				} else {
-					camera.stopPreview();
-					camera.setDisplayOrientation(result);
-					camera.startPreview();
+					// Back-facing
+					cameraDisplayOrientation = result = (camera.getSensorOrientation() - degrees + 360) % 360;
 				}
-				lastRotation = rotation;
 			}
-		}
 
-		return true;
-	}
+			int[] previewSize = null;
+			if (targetWidth > 0 && targetHeight > 0) {
+				boolean portrait = cameraDisplayOrientation == 90 || cameraDisplayOrientation == 270;
+				try {
+					previewSize = optimizePreviewSize(camera.getSupportedPreviewSizes(), portrait);
+				} catch (RuntimeException e) {
+					Log.e(LOG_TAG, "Failed to get supported preview sizes", e);
+				}
+			}
 
-	private boolean optimizePreviewSize() {
-		synchronized (this) {
-			if (camera == null) {
+			boolean sizeChanged = previewSize != null
+					&& (previewSize[0] != current.previewWidth || previewSize[1] != current.previewHeight);
+			if (!rotate && !sizeChanged) {
 				return false;
 			}
-		}
 
-		synchronized (this) {
-			if (optimizing) {
+			// Preview size and orientation can't be changed while the
+			// preview is running. It is only restarted if nothing has asked
+			// for it to stop in the meantime.
+			boolean restart = previewRunning && state.get() == STATE_PREVIEWING;
+			try {
+				if (previewRunning) {
+					camera.stopPreview();
+					previewRunning = false;
+				}
+				if (rotate) {
+					camera.setDisplayOrientation(result);
+				}
+				if (sizeChanged) {
+					camera.setPreviewSize(previewSize[0], previewSize[1]);
+				}
+				if (restart) {
+					camera.startPreview();
+					previewRunning = true;
+				}
+			} catch (RuntimeException e) {
+				Log.e(LOG_TAG, "Failed to update camera configuration", e);
 				return false;
 			}
-			optimizing = true;
+
+			configuration = new Configuration(sizeChanged ? previewSize[0] : current.previewWidth,
+					sizeChanged ? previewSize[1] : current.previewHeight, cameraDisplayOrientation, rotation);
+			return true;
 		}
+	}
 
+	private static int toDegrees(int rotation) {
+		switch (rotation) {
+			case Surface.ROTATION_0:
+				return 0;
+			case Surface.ROTATION_90:
+				return 90;
+			case Surface.ROTATION_180:
+				return 180;
+			case Surface.ROTATION_270:
+				return 270;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @return The best of the supported <code>{width, height}</code> sizes
+	 *         for the target size, or null.
+	 */
+	private int[] optimizePreviewSize(List<int[]> supportedPreviewSizes, boolean portrait) {
 		if (supportedPreviewSizes == null) {
-			return false;
+			return null;
 		}
 
-		// TODO If view is larger? Should we use a larger preview?
+		final int targetWidth = this.targetWidth;
+		final int targetHeight = this.targetHeight;
 
-		boolean portrait = cameraDisplayOrientation == 90 || cameraDisplayOrientation == 270;
+		// TODO If view is larger? Should we use a larger preview?
 
-		Size optimalSize = null;
+		int[] optimalSize = null;
 		if (portrait) {
 			// Portrait
 
 			double minDiff = Double.MAX_VALUE;
 			// Try finding the closest preview size that is also larger than the
 			// target size (Since we'd rather scale down than scale up).
-			for (Size size : supportedPreviewSizes) {
+			for (int[] size : supportedPreviewSizes) {
 				// We have to swap with and height, because we will be rotation
 				// the preview 90 degrees.
-				if (size.height < targetWidth || size.width < targetHeight) {
+				if (size[1] < targetWidth || size[0] < targetHeight) {
 					continue;
 				}
 
 				// We compare only "width", since "height" is much larger anyway
-				int diff = (size.height - targetWidth);
+				int diff = (size[1] - targetWidth);
 
 				if (diff < minDiff) {
 					optimalSize = size;
@@ -285,10 +510,10 @@ public class CameraWrapper {
 			if (optimalSize == null) {
 				// No such luck, so find the closest preview size, even if
 				// smaller.
-				for (Size size : supportedPreviewSizes) {
+				for (int[] size : supportedPreviewSizes) {
 					// We compare only "width", since "height" is much larger
 					// anyway
-					int diff = Math.abs(size.height - targetWidth);
+					int diff = Math.abs(size[1] - targetWidth);
 
 					if (diff < minDiff) {
 						optimalSize = size;
@@ -299,56 +524,45 @@ public class CameraWrapper {
 		} else {
 			// Landscape
 
-			Size targetSize = camera.new Size(targetWidth, targetHeight);
-			if (supportedPreviewSizes.contains(targetSize)) {
-				optimalSize = targetSize;
-			} else {
-				double minDiff = Double.MAX_VALUE;
-				// Try finding the closest preview size that is also larger than
-				// the target size (Since we'd rather scale down than scale up).
-				for (Size size : supportedPreviewSizes) {
-					if (size.width < targetWidth || size.height < targetHeight) {
-						continue;
-					}
-
-					// We don't need Math.abs(), since we know size is larger
-					// than target size :)
-					int diff = (size.height - targetHeight) + (size.width - targetWidth);
+			for (int[] size : supportedPreviewSizes) {
+				if (size[0] == targetWidth && size[1] == targetHeight) {
+					return size;
+				}
+			}
 
-					if (diff < minDiff) {
-						optimalSize = size;
-						minDiff = diff;
-					}
+			double minDiff = Double.MAX_VALUE;
+			// Try finding the closest preview size that is also larger than
+			// the target size (Since we'd rather scale down than scale up).
+			for (int[] size : supportedPreviewSizes) {
+				if (size[0] < targetWidth || size[1] < targetHeight) {
+					continue;
 				}
 
-				if (optimalSize == null) {
-					// No such luck, so find the closest preview size, even if
-					// smaller.
-					for (Size size : supportedPreviewSizes) {
-						int diff = Math.abs(size.height - targetHeight) + Math.abs(size.width - targetWidth);
+				// We don't need Math.abs(), since we know size is larger
+				// than target size :)
+				int diff = (size[1] - targetHeight) + (size[0] - targetWidth);
 
-						if (diff < minDiff) {
-							optimalSize = size;
-							minDiff = diff;
-						}
-					}
+				if (diff < minDiff) {
+					optimalSize = size;
+					minDiff = diff;
 				}
 			}
-		}
 
-		previewSize = optimalSize;
+			if (optimalSize == null) {
+				// No such luck, so find the closest preview size, even if
+				// smaller.
+				for (int[] size : supportedPreviewSizes) {
+					int diff = Math.abs(size[1] - targetHeight) + Math.abs(size[0] - targetWidth);
 
-		synchronized (this) {
-			if (camera != null) {
-				Camera.Parameters parameters = camera.getParameters();
-				parameters.setPreviewSize(previewSize.width, previewSize.height);
-				camera.setParameters(parameters);
+					if (diff < minDiff) {
+						optimalSize = size;
+						minDiff = diff;
+					}
+				}
 			}
 		}
 
-		optimizing = false;
-
-		return true;
+		return optimalSize;
 	}
 
 	public static boolean isAnyCameraAvailable(Context context) {
@@ -361,4 +575,4 @@ public class CameraWrapper {
 		PackageManager pm = context.getPackageManager();
 		return pm.hasSystemFeature(PackageManager.FEATURE_CAMERA);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,237 @@
+package com.dm.zbar.android.scanner;
+
+/**
+ * Limits the share of time spent decoding preview frames.
+ * <p>
+ * After every decode the governor holds off the next one long enough to keep
+ * decoding at the target duty cycle. While the scene is moving, or a complete
+ * symbol has been decoded recently, the governor is {@link #STATE_ACTIVE} and
+ * uses the active duty cycle, by default every frame. Once neither has
+ * happened for the idle timeout it drops to {@link #STATE_IDLE} and the lower
+ * idle duty cycle; the first moving frame or symbol brings it straight back.
+ * Each of these cancels any pending hold-off. A {@link RateListener} is told
+ * about each switch, e.g. to lower the preview frame rate while idle.
+ * <p>
+ * Partial symbols can't wake the governor: ZBar drops them before they reach
+ * {@link net.sourceforge.zbar.ImageScanner#getResults()}.
+ * <p>
+ * Motion is detected by comparing a coarse grid of luma samples with the
+ * previous frame. Instances are not thread safe; they are meant to be driven
+ * from the preview callback.
+ */
+public class DecodeGovernor {
+
+	public static final int STATE_ACTIVE = 0;
+	public static final int STATE_IDLE = 1;
+
+	public interface Clock {
+		/** Monotonic time in nanoseconds, as {@link System#nanoTime()} */
+		public long nanoTime();
+	}
+
+	public interface RateListener {
+		public void onStateChanged(int state);
+	}
+
+	private static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	public static final float DEFAULT_ACTIVE_DUTY_CYCLE = 1f;
+	public static final float DEFAULT_IDLE_DUTY_CYCLE = 0.1f;
+	public static final long DEFAULT_IDLE_TIMEOUT = 3000;
+
+	private static final int GRID_SIZE = 16;
+	// Mean absolute difference of the grid samples that counts as motion
+	private static final int MOTION_THRESHOLD = 12;
+
+	// The measured duty cycle is averaged over windows of this length.
+	static final long MEASURE_WINDOW = 1000000000L;
+
+	private final Clock mClock;
+	private final float mActiveDutyCycle;
+	private final float mIdleDutyCycle;
+	private final long mIdleTimeout;
+
+	private RateListener mRateListener;
+
+	private int mState = STATE_ACTIVE;
+	private long mLastActivity;
+	private long mNextDecodeAt;
+	private long mDecodeStart = -1;
+
+	private final int[] mGrid = new int[GRID_SIZE * GRID_SIZE];
+	private boolean mHasGrid;
+
+	private long mWindowStart;
+	private long mWindowBusy;
+	private float mDutyCycle;
+
+	private long mDecodedFrames;
+	private long mSkippedFrames;
+
+	public DecodeGovernor() {
+		this(SYSTEM_CLOCK, DEFAULT_ACTIVE_DUTY_CYCLE, DEFAULT_IDLE_DUTY_CYCLE, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * @param activeDutyCycle
+	 *            Target fraction of time spent decoding while active, in
+	 *            (0, 1].
+	 * @param idleDutyCycle
+	 *            Target fraction of time spent decoding while idle, in (0, 1].
+	 * @param idleTimeout
+	 *            Milliseconds without motion or symbols before going idle.
+	 */
+	public DecodeGovernor(Clock clock, float activeDutyCycle, float idleDutyCycle, long idleTimeout) {
+		if (!(activeDutyCycle > 0 && activeDutyCycle <= 1) || !(idleDutyCycle > 0 && idleDutyCycle <= 1)) {
+			throw new IllegalArgumentException("Duty cycles must be in (0, 1]");
+		}
+
+		mClock = clock;
+		mActiveDutyCycle = activeDutyCycle;
+		mIdleDutyCycle = idleDutyCycle;
+		mIdleTimeout = idleTimeout * 1000000L;
+
+		long now = clock.nanoTime();
+		mLastActivity = now;
+		mNextDecodeAt = now;
+		mWindowStart = now;
+	}
+
+	public void setRateListener(RateListener listener) {
+		mRateListener = listener;
+	}
+
+	/**
+	 * Decides whether the given frame should be decoded. If this returns
+	 * true, {@link #onDecodeFinished} must be called once the frame has been
+	 * scanned.
+	 */
+	public boolean shouldDecode(byte[] data, int width, int height) {
+		final long now = mClock.nanoTime();
+
+		if (detectMotion(data, width, height)) {
+			onActivity(now);
+		} else if (mState == STATE_ACTIVE && now - mLastActivity >= mIdleTimeout) {
+			setState(STATE_IDLE);
+		}
+
+		updateDutyCycle(now);
+
+		if (now < mNextDecodeAt) {
+			mSkippedFrames++;
+			return false;
+		}
+
+		mDecodeStart = now;
+		return true;
+	}
+
+	/**
+	 * @param found
+	 *            Whether a complete symbol was decoded.
+	 */
+	public void onDecodeFinished(boolean found) {
+		if (mDecodeStart < 0) {
+			throw new IllegalStateException("onDecodeFinished() without shouldDecode()");
+		}
+
+		final long now = mClock.nanoTime();
+		final long busy = now - mDecodeStart;
+		mDecodeStart = -1;
+		mDecodedFrames++;
+		mWindowBusy += busy;
+
+		if (found) {
+			onActivity(now);
+		} else {
+			double duty = getTargetDutyCycle();
+			mNextDecodeAt = now + (long) (busy * (1 - duty) / duty);
+		}
+
+		updateDutyCycle(now);
+	}
+
+	/**
+	 * @return {@link #STATE_ACTIVE} or {@link #STATE_IDLE}.
+	 */
+	public int getState() {
+		return mState;
+	}
+
+	public float getTargetDutyCycle() {
+		return mState == STATE_ACTIVE ? mActiveDutyCycle : mIdleDutyCycle;
+	}
+
+	/**
+	 * @return The fraction of time spent decoding over the last complete
+	 *         measurement window.
+	 */
+	public float getDutyCycle() {
+		return mDutyCycle;
+	}
+
+	public long getDecodedFrameCount() {
+		return mDecodedFrames;
+	}
+
+	public long getSkippedFrameCount() {
+		return mSkippedFrames;
+	}
+
+	private void onActivity(long now) {
+		mLastActivity = now;
+		// Something worth decoding may be in view; don't wait out a hold-off
+		// computed for an earlier, uneventful frame.
+		mNextDecodeAt = now;
+		if (mState != STATE_ACTIVE) {
+			setState(STATE_ACTIVE);
+		}
+	}
+
+	private void setState(int state) {
+		mState = state;
+		if (mRateListener != null) {
+			mRateListener.onStateChanged(state);
+		}
+	}
+
+	private void updateDutyCycle(long now) {
+		final long elapsed = now - mWindowStart;
+		if (elapsed >= MEASURE_WINDOW) {
+			mDutyCycle = Math.min(1f, (float) mWindowBusy / elapsed);
+			mWindowStart = now;
+			mWindowBusy = 0;
+		}
+	}
+
+	private boolean detectMotion(byte[] data, int width, int height) {
+		if (width < GRID_SIZE || height < GRID_SIZE || data.length < width * height) {
+			return false;
+		}
+
+		final int[] grid = mGrid;
+		final int stepX = width / GRID_SIZE;
+		final int stepY = height / GRID_SIZE;
+		int diff = 0;
+		int g = 0;
+		for (int gy = 0; gy < GRID_SIZE; gy++) {
+			final int row = (gy * stepY + stepY / 2) * width + stepX / 2;
+			for (int gx = 0; gx < GRID_SIZE; gx++) {
+				final int v = data[row + gx * stepX] & 0xff;
+				diff += Math.abs(v - grid[g]);
+				grid[g++] = v;
+			}
+		}
+
+		if (!mHasGrid) {
+			mHasGrid = true;
+			return false;
+		}
+		return diff / grid.length >= MOTION_THRESHOLD;
+	}
+}
@@ -0,0 +1,37 @@
+package com.dm.zbar.android.scanner;
+
+import net.sourceforge.zbar.Config;
+import net.sourceforge.zbar.ImageScanner;
+import net.sourceforge.zbar.Symbol;
+
+/**
+ * Creates {@link ImageScanner} instances configured the same way for the live
+ * camera path ({@link ScannerHelper}) and the still-image path
+ * ({@link BatchScanner}).
+ */
+public final class ImageScannerFactory {
+
+	private ImageScannerFactory() {
+	}
+
+	/**
+	 * @param scanModes
+	 *            Symbol types to enable (see {@link Symbol}), or null to scan
+	 *            for all supported types.
+	 */
+	public static ImageScanner create(int[] scanModes) {
+		ImageScanner scanner = new ImageScanner();
+		scanner.setConfig(0, Config.X_DENSITY, 3);
+		scanner.setConfig(0, Config.Y_DENSITY, 3);
+
+		int[] symbols = scanModes;
+		if (symbols != null) {
+			scanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
+			for (int symbol : symbols) {
+				scanner.setConfig(symbol, Config.ENABLE, 1);
+			}
+		}
+
+		return scanner;
+	}
+}
@@ -0,0 +1,323 @@
+package com.dm.zbar.android.scanner;
+
+import java.util.Arrays;
+
+/**
+ * Optional clean-up of the Y plane before it is handed to the scanner, for
+ * faded, glossy or white-on-black labels.
+ * <p>
+ * Every frame a sparse luma histogram is taken. Depending on what it shows and
+ * on how many frames in a row have been scanned without a result, up to three
+ * passes are run over the first <code>width * height</code> bytes of the
+ * buffer, in place:
+ * <ul>
+ * <li>a contrast stretch of the 2nd to 98th percentile onto 0-255, when the
+ * frame does not already use most of the range but is not blank either,</li>
+ * <li>an inversion on every other frame once a few frames have been missed
+ * and most of the frame is darker than the middle of its range, as with light
+ * codes printed on a dark background,</li>
+ * <li>a tile based local threshold once many frames have been missed in a
+ * low contrast scene.</li>
+ * </ul>
+ * Stretch and inversion share a single lookup table pass. All buffers are
+ * kept between frames, so nothing is allocated once the frame size is stable.
+ * Instances are not thread safe.
+ */
+public class LumaPreprocessor {
+
+	public static final int PASS_STRETCH = 1;
+	public static final int PASS_INVERT = 1 << 1;
+	public static final int PASS_THRESHOLD = 1 << 2;
+
+	// Histogram is sampled from every 4th pixel of every 4th row.
+	private static final int SAMPLE_SHIFT = 2;
+
+	private static final int CLIP_PERCENT = 2;
+
+	// A percentile range at least this wide is left alone.
+	private static final int FULL_RANGE = 200;
+	// Narrower ranges are sensor noise on a blank scene and aren't stretched.
+	private static final int MIN_STRETCH_RANGE = 16;
+	// Below this range a local threshold is attempted after repeated misses.
+	private static final int LOW_CONTRAST_RANGE = 64;
+
+	static final int MISSES_BEFORE_INVERT = 4;
+	static final int MISSES_BEFORE_THRESHOLD = 8;
+
+	private static final int TILE_SHIFT = 4;
+	private static final int TILE_SIZE = 1 << TILE_SHIFT;
+	// Tiles whose own range is smaller than this are treated as background.
+	private static final int MIN_TILE_RANGE = 24;
+
+	private boolean mInversionEnabled = true;
+	private boolean mThresholdEnabled = true;
+
+	private final int[] mHistogram = new int[256];
+	private final byte[] mLut = new byte[256];
+
+	private int[] mTileMeans;
+	private int[] mTileMin;
+	private int[] mTileMax;
+	private int[] mTileThresholds;
+
+	private int mMisses;
+	private int mFrame;
+
+	private int mLastRange;
+	private int mLastPasses;
+
+	public void setInversionEnabled(boolean enabled) {
+		mInversionEnabled = enabled;
+	}
+
+	public void setThresholdEnabled(boolean enabled) {
+		mThresholdEnabled = enabled;
+	}
+
+	/**
+	 * Runs the passes the current frame calls for on the luma plane at the
+	 * start of <code>data</code>.
+	 *
+	 * @return A combination of the <code>PASS_*</code> flags that were applied.
+	 */
+	public int process(byte[] data, int width, int height) {
+		final int pixels = width * height;
+		if (width <= 0 || height <= 0 || data.length < pixels) {
+			throw new IllegalArgumentException("Buffer is smaller than " + width + "x" + height);
+		}
+
+		mFrame++;
+
+		sampleHistogram(data, width, height);
+		final int[] histogram = mHistogram;
+		int samples = 0;
+		for (int i = 0; i < 256; i++) {
+			samples += histogram[i];
+		}
+		final int clip = samples * CLIP_PERCENT / 100;
+		final int low = percentile(histogram, clip);
+		final int high = percentileFromTop(histogram, clip);
+		final int range = Math.max(high - low, 0);
+
+		// A light code on a dark background leaves most samples in the lower
+		// half of the range; a normal label the other way round.
+		final int middle = (low + high) >> 1;
+		int dark = 0;
+		for (int v = 0; v < middle; v++) {
+			dark += histogram[v];
+		}
+		final boolean darkDominant = dark * 2 > samples;
+
+		int passes = 0;
+		if (range < FULL_RANGE && range >= MIN_STRETCH_RANGE) {
+			passes |= PASS_STRETCH;
+		}
+		if (mInversionEnabled && darkDominant && mMisses >= MISSES_BEFORE_INVERT && (mFrame & 1) != 0) {
+			passes |= PASS_INVERT;
+		}
+		if (mThresholdEnabled && mMisses >= MISSES_BEFORE_THRESHOLD && range < LOW_CONTRAST_RANGE) {
+			passes |= PASS_THRESHOLD;
+		}
+
+		if ((passes & (PASS_STRETCH | PASS_INVERT)) != 0) {
+			buildLut(low, range, (passes & PASS_STRETCH) != 0, (passes & PASS_INVERT) != 0);
+			applyLut(data, pixels);
+		}
+		if ((passes & PASS_THRESHOLD) != 0) {
+			threshold(data, width, height);
+		}
+
+		mLastRange = range;
+		mLastPasses = passes;
+		return passes;
+	}
+
+	/**
+	 * Feeds back whether the frame last passed to {@link #process} produced a
+	 * result.
+	 */
+	public void onScanResult(boolean found) {
+		if (found) {
+			mMisses = 0;
+		} else if (mMisses < Integer.MAX_VALUE) {
+			mMisses++;
+		}
+	}
+
+	/**
+	 * @return The 2nd to 98th percentile luma range of the last frame.
+	 */
+	public int getLastRange() {
+		return mLastRange;
+	}
+
+	/**
+	 * @return The <code>PASS_*</code> flags applied to the last frame.
+	 */
+	public int getLastPasses() {
+		return mLastPasses;
+	}
+
+	private void sampleHistogram(byte[] data, int width, int height) {
+		final int[] histogram = mHistogram;
+		Arrays.fill(histogram, 0);
+
+		final int step = 1 << SAMPLE_SHIFT;
+		for (int y = 0; y < height; y += step) {
+			final int end = y * width + width;
+			for (int i = y * width; i < end; i += step) {
+				histogram[data[i] & 0xff]++;
+			}
+		}
+	}
+
+	private static int percentile(int[] histogram, int clip) {
+		int count = 0;
+		for (int v = 0; v < 256; v++) {
+			count += histogram[v];
+			if (count > clip) {
+				return v;
+			}
+		}
+		return 255;
+	}
+
+	private static int percentileFromTop(int[] histogram, int clip) {
+		int count = 0;
+		for (int v = 255; v >= 0; v--) {
+			count += histogram[v];
+			if (count > clip) {
+				return v;
+			}
+		}
+		return 0;
+	}
+
+	private void buildLut(int low, int range, boolean stretch, boolean invert) {
+		final byte[] lut = mLut;
+		for (int v = 0; v < 256; v++) {
+			int out = v;
+			if (stretch) {
+				out = (v - low) * 255 / range;
+				if (out < 0) {
+					out = 0;
+				} else if (out > 255) {
+					out = 255;
+				}
+			}
+			if (invert) {
+				out = 255 - out;
+			}
+			lut[v] = (byte) out;
+		}
+	}
+
+	private void applyLut(byte[] data, int pixels) {
+		final byte[] lut = mLut;
+		for (int i = 0; i < pixels; i++) {
+			data[i] = lut[data[i] & 0xff];
+		}
+	}
+
+	/**
+	 * Binarizes each 16x16 tile against the mean of the surrounding 3x3 tiles.
+	 * Flat tiles are filled entirely with black or white, so that noise in
+	 * empty areas does not turn into speckle.
+	 */
+	private void threshold(byte[] data, int width, int height) {
+		final int tilesX = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+		final int tilesY = (height + TILE_SIZE - 1) >> TILE_SHIFT;
+		final int tiles = tilesX * tilesY;
+
+		if (mTileMeans == null || mTileMeans.length < tiles) {
+			mTileMeans = new int[tiles];
+			mTileMin = new int[tiles];
+			mTileMax = new int[tiles];
+			mTileThresholds = new int[tiles];
+		}
+		final int[] means = mTileMeans;
+		final int[] mins = mTileMin;
+		final int[] maxs = mTileMax;
+		final int[] thresholds = mTileThresholds;
+
+		Arrays.fill(means, 0, tiles, 0);
+		Arrays.fill(mins, 0, tiles, 255);
+		Arrays.fill(maxs, 0, tiles, 0);
+
+		// Sum, min and max per tile
+		for (int y = 0; y < height; y++) {
+			final int row = y * width;
+			final int tileRow = (y >> TILE_SHIFT) * tilesX;
+			for (int tx = 0; tx < tilesX; tx++) {
+				final int start = row + (tx << TILE_SHIFT);
+				final int end = row + Math.min((tx + 1) << TILE_SHIFT, width);
+				int sum = 0;
+				int min = 255;
+				int max = 0;
+				for (int i = start; i < end; i++) {
+					final int v = data[i] & 0xff;
+					sum += v;
+					if (v < min) {
+						min = v;
+					}
+					if (v > max) {
+						max = v;
+					}
+				}
+				final int t = tileRow + tx;
+				means[t] += sum;
+				if (min < mins[t]) {
+					mins[t] = min;
+				}
+				if (max > maxs[t]) {
+					maxs[t] = max;
+				}
+			}
+		}
+
+		for (int ty = 0; ty < tilesY; ty++) {
+			final int tileHeight = Math.min(TILE_SIZE, height - (ty << TILE_SHIFT));
+			for (int tx = 0; tx < tilesX; tx++) {
+				final int tileWidth = Math.min(TILE_SIZE, width - (tx << TILE_SHIFT));
+				means[ty * tilesX + tx] /= tileWidth * tileHeight;
+			}
+		}
+
+		for (int ty = 0; ty < tilesY; ty++) {
+			final int top = Math.max(ty - 1, 0);
+			final int bottom = Math.min(ty + 1, tilesY - 1);
+			for (int tx = 0; tx < tilesX; tx++) {
+				final int left = Math.max(tx - 1, 0);
+				final int right = Math.min(tx + 1, tilesX - 1);
+				int sum = 0;
+				for (int y = top; y <= bottom; y++) {
+					for (int x = left; x <= right; x++) {
+						sum += means[y * tilesX + x];
+					}
+				}
+				final int neighbourhood = sum / ((bottom - top + 1) * (right - left + 1));
+
+				final int t = ty * tilesX + tx;
+				if (maxs[t] - mins[t] < MIN_TILE_RANGE) {
+					// 0 turns every pixel white, 256 turns every pixel black.
+					thresholds[t] = means[t] + MIN_TILE_RANGE / 2 >= neighbourhood ? 0 : 256;
+				} else {
+					thresholds[t] = neighbourhood;
+				}
+			}
+		}
+
+		for (int y = 0; y < height; y++) {
+			final int row = y * width;
+			final int tileRow = (y >> TILE_SHIFT) * tilesX;
+			for (int tx = 0; tx < tilesX; tx++) {
+				final int threshold = thresholds[tileRow + tx];
+				final int start = row + (tx << TILE_SHIFT);
+				final int end = row + Math.min((tx + 1) << TILE_SHIFT, width);
+				for (int i = start; i < end; i++) {
+					data[i] = (data[i] & 0xff) < threshold ? (byte) 0 : (byte) 255;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads binary PGM ("P5") images into an 8 bit luma buffer.
+ * <p>
+ * Images whose maximum value is not 255 are scaled onto 0-255, so that ZBar
+ * sees the same contrast whatever bit depth the image was stored with.
+ * Samples wider than 8 bits are scaled one row at a time, so only the 8 bit
+ * plane is ever held in memory. The buffers are reused for every image of the
+ * same size; a buffer returned by {@link #read} is only valid until the next
+ * call. Instances are not thread safe.
+ */
+final class PgmReader {
+
+	private byte[] mLuma;
+	private byte[] mRow;
+	private final byte[] mScale = new byte[256];
+
+	private int mWidth;
+	private int mHeight;
+
+	/**
+	 * @return The luma plane of the image, <code>getWidth() * getHeight()</code>
+	 *         bytes long.
+	 */
+	byte[] read(InputStream in) throws IOException {
+		if (in.read() != 'P' || in.read() != '5') {
+			throw new IOException("Not a binary PGM image");
+		}
+
+		int width = readHeaderValue(in);
+		int height = readHeaderValue(in);
+		int maxVal = readHeaderValue(in);
+		if (width <= 0 || height <= 0 || maxVal <= 0 || maxVal > 65535) {
+			throw new IOException("Invalid PGM header");
+		}
+		if ((long) width * height > Integer.MAX_VALUE) {
+			throw new IOException("PGM image is too large");
+		}
+
+		byte[] luma = obtainBuffer(width * height);
+		if (maxVal < 256) {
+			readFully(in, luma, 0, luma.length);
+			if (maxVal != 255) {
+				final byte[] scale = mScale;
+				for (int v = 0; v < 256; v++) {
+					scale[v] = (byte) (v >= maxVal ? 255 : v * 255 / maxVal);
+				}
+				for (int i = 0; i < luma.length; i++) {
+					luma[i] = scale[luma[i] & 0xff];
+				}
+			}
+		} else {
+			if (mRow == null || mRow.length < width * 2) {
+				mRow = new byte[width * 2];
+			}
+			final byte[] row = mRow;
+			int out = 0;
+			for (int y = 0; y < height; y++) {
+				readFully(in, row, 0, width * 2);
+				for (int x = 0; x < width * 2; x += 2) {
+					int sample = ((row[x] & 0xff) << 8) | (row[x + 1] & 0xff);
+					luma[out++] = (byte) (sample >= maxVal ? 255 : sample * 255 / maxVal);
+				}
+			}
+		}
+
+		mWidth = width;
+		mHeight = height;
+		return luma;
+	}
+
+	int getWidth() {
+		return mWidth;
+	}
+
+	int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * @return A buffer of exactly <code>size</code> bytes, reused if possible.
+	 */
+	byte[] obtainBuffer(int size) {
+		if (mLuma == null || mLuma.length != size) {
+			mLuma = null;
+			mLuma = new byte[size];
+		}
+		return mLuma;
+	}
+
+	/**
+	 * Drops the buffers, e.g. after an {@link OutOfMemoryError}.
+	 */
+	void releaseBuffers() {
+		mLuma = null;
+		mRow = null;
+	}
+
+	static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		while (length > 0) {
+			int read = in.read(buffer, offset, length);
+			if (read < 0) {
+				throw new EOFException("Image data is truncated");
+			}
+			offset += read;
+			length -= read;
+		}
+	}
+
+	/**
+	 * Reads one decimal header field, skipping leading whitespace and
+	 * comments, and consumes the single whitespace character after it.
+	 */
+	private static int readHeaderValue(InputStream in) throws IOException {
+		int c = in.read();
+		while (true) {
+			if (c == '#') {
+				while (c != '\n' && c != '\r' && c != -1) {
+					c = in.read();
+				}
+			} else if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				c = in.read();
+			} else {
+				break;
+			}
+		}
+
+		if (c < '0' || c > '9') {
+			throw new IOException("Invalid PGM header");
+		}
+
+		int value = 0;
+		while (c >= '0' && c <= '9') {
+			value = value * 10 + (c - '0');
+			if (value > 0xffff) {
+				throw new IOException("Invalid PGM header");
+			}
+			c = in.read();
+		}
+		return value;
+	}
+}
@@ -0,0 +1,318 @@
+package com.dm.zbar.android.scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dm.zbar.android.scanner.ScannerHelper.ScannerResultListener;
+
+/**
+ * Decouples decoding from whoever consumes the results.
+ * <p>
+ * Results are put on a bounded, lock-free queue and handed to a
+ * {@link BatchListener} in batches, on an {@link Executor} of the consumer's
+ * choosing (for the UI thread, one that posts to a
+ * {@link android.os.Handler}). A batch is delivered as soon as
+ * <code>maxBatchSize</code> results are waiting, or <code>maxDelay</code>
+ * after the first result of a batch arrived, whichever comes first. Each task
+ * run on the executor delivers one batch, so a backlog is handed over in
+ * several tasks rather than holding the executor until it is drained. Results
+ * are delivered in the order they were offered, and the listener is never
+ * called concurrently, even on an executor with several threads.
+ * <p>
+ * {@link #offer} never blocks. When the queue is full the overflow policy
+ * decides whether the new result ({@link #OVERFLOW_DROP_NEWEST}) or the
+ * oldest waiting one ({@link #OVERFLOW_DROP_OLDEST}) is dropped.
+ * <p>
+ * The <code>maxDelay</code> timer runs on a thread that is only started when
+ * a partial batch has to wait, and that stops again once it has been idle
+ * for a second, so a channel that is never closed does not keep it alive.
+ * <p>
+ * The channel is a {@link ScannerResultListener}, so it can be passed
+ * straight to {@link ScannerHelper}.
+ */
+public class ResultChannel implements ScannerResultListener {
+
+	public static final int OVERFLOW_DROP_NEWEST = 0;
+	public static final int OVERFLOW_DROP_OLDEST = 1;
+
+	private static final long TIMER_KEEP_ALIVE_MS = 1000;
+
+	public static final class ScanResult {
+		public final String symData;
+		public final int symType;
+		/** {@link System#currentTimeMillis()} when the result was offered */
+		public final long timestamp;
+
+		public ScanResult(String symData, int symType, long timestamp) {
+			this.symData = symData;
+			this.symType = symType;
+			this.timestamp = timestamp;
+		}
+	}
+
+	public interface BatchListener {
+		public void onResults(List<ScanResult> results);
+	}
+
+	private final int mCapacity;
+	private final int mMaxBatchSize;
+	private final long mMaxDelay;
+	private final int mOverflowPolicy;
+	private final Executor mExecutor;
+	private final BatchListener mListener;
+
+	private final ConcurrentLinkedQueue<ScanResult> mQueue = new ConcurrentLinkedQueue<ScanResult>();
+	private final AtomicInteger mSize = new AtomicInteger();
+
+	// Set while a delivery task is queued on the executor.
+	private final AtomicBoolean mDeliveryPending = new AtomicBoolean();
+	// Set while a task is calling the listener.
+	private final AtomicBoolean mDelivering = new AtomicBoolean();
+	// Set while a timer is running for the current batch.
+	private final AtomicBoolean mTimerArmed = new AtomicBoolean();
+	private final Object mTimerLock = new Object();
+	// Created on first use, guarded by mTimerLock
+	private ScheduledThreadPoolExecutor mTimer;
+	private volatile boolean mClosed;
+
+	private final AtomicLong mDelivered = new AtomicLong();
+	private final AtomicLong mDropped = new AtomicLong();
+
+	private final Runnable mDeliverTask = new Runnable() {
+		@Override
+		public void run() {
+			deliver();
+		}
+	};
+
+	private final Runnable mTimeoutTask = new Runnable() {
+		@Override
+		public void run() {
+			mTimerArmed.set(false);
+			scheduleDelivery();
+		}
+	};
+
+	/**
+	 * @param capacity
+	 *            Maximum number of results waiting for delivery.
+	 * @param maxBatchSize
+	 *            Maximum number of results per batch.
+	 * @param maxDelay
+	 *            Longest time, in milliseconds, a result waits for its batch
+	 *            to fill up.
+	 * @param overflowPolicy
+	 *            {@link #OVERFLOW_DROP_NEWEST} or {@link #OVERFLOW_DROP_OLDEST}.
+	 * @param executor
+	 *            Executor the listener is called on. It may run tasks
+	 *            concurrently; a task that finds another one delivering leaves
+	 *            the rest of the queue to it.
+	 */
+	public ResultChannel(int capacity, int maxBatchSize, long maxDelay, int overflowPolicy, Executor executor,
+			BatchListener listener) {
+		if (capacity < 1 || maxBatchSize < 1 || maxDelay < 0) {
+			throw new IllegalArgumentException("Invalid capacity, batch size or delay");
+		}
+		if (overflowPolicy != OVERFLOW_DROP_NEWEST && overflowPolicy != OVERFLOW_DROP_OLDEST) {
+			throw new IllegalArgumentException("Unknown overflow policy " + overflowPolicy);
+		}
+
+		mCapacity = capacity;
+		mMaxBatchSize = maxBatchSize;
+		mMaxDelay = maxDelay;
+		mOverflowPolicy = overflowPolicy;
+		mExecutor = executor;
+		mListener = listener;
+	}
+
+	@Override
+	public void onResult(String symData, int symType) {
+		offer(new ScanResult(symData, symType, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Queues a result without blocking.
+	 *
+	 * @return false if the result was dropped, either because the channel is
+	 *         closed or because it is full and the policy is
+	 *         {@link #OVERFLOW_DROP_NEWEST}.
+	 */
+	public boolean offer(ScanResult result) {
+		if (mClosed) {
+			mDropped.incrementAndGet();
+			return false;
+		}
+
+		int size = mSize.incrementAndGet();
+		if (size > mCapacity) {
+			if (mOverflowPolicy == OVERFLOW_DROP_NEWEST) {
+				mSize.decrementAndGet();
+				mDropped.incrementAndGet();
+				return false;
+			}
+
+			if (mQueue.poll() != null) {
+				size = mSize.decrementAndGet();
+				mDropped.incrementAndGet();
+			}
+		}
+		mQueue.offer(result);
+
+		// Checked again after queueing: if close() ran in between, its own
+		// delivery may already have missed this result.
+		if (size >= mMaxBatchSize || mMaxDelay == 0 || mClosed) {
+			scheduleDelivery();
+		} else {
+			armTimer();
+		}
+		return true;
+	}
+
+	/**
+	 * Delivers whatever is still queued and stops the timer. Results offered
+	 * afterwards are dropped.
+	 */
+	public void close() {
+		mClosed = true;
+		synchronized (mTimerLock) {
+			if (mTimer != null) {
+				mTimer.shutdownNow();
+			}
+		}
+		mTimerArmed.set(false);
+		scheduleDelivery();
+	}
+
+	/**
+	 * @return The number of results currently waiting for delivery.
+	 */
+	public int size() {
+		return Math.max(mSize.get(), 0);
+	}
+
+	public long getDeliveredCount() {
+		return mDelivered.get();
+	}
+
+	public long getDroppedCount() {
+		return mDropped.get();
+	}
+
+	private void scheduleDelivery() {
+		if (mDeliveryPending.compareAndSet(false, true)) {
+			mExecutor.execute(mDeliverTask);
+		}
+	}
+
+	private void armTimer() {
+		if (mTimerArmed.compareAndSet(false, true)) {
+			ScheduledExecutorService timer = getTimer();
+			try {
+				if (timer != null) {
+					timer.schedule(mTimeoutTask, mMaxDelay, TimeUnit.MILLISECONDS);
+					return;
+				}
+			} catch (RejectedExecutionException e) {
+				// Closed concurrently
+			}
+			mTimerArmed.set(false);
+			scheduleDelivery();
+		}
+	}
+
+	/**
+	 * @return The timer, started if necessary, or null once closed.
+	 */
+	private ScheduledExecutorService getTimer() {
+		synchronized (mTimerLock) {
+			if (mTimer == null && !mClosed) {
+				mTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ZBarScanner/ResultChannel");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+				mTimer.setKeepAliveTime(TIMER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+				mTimer.allowCoreThreadTimeOut(true);
+			}
+			return mTimer;
+		}
+	}
+
+	/**
+	 * @return The number of live timer threads, for tests.
+	 */
+	int getTimerThreadCount() {
+		synchronized (mTimerLock) {
+			return mTimer != null ? mTimer.getPoolSize() : 0;
+		}
+	}
+
+	/**
+	 * Delivers a single batch, so a busy channel can't hog the executor, and
+	 * then leaves whatever is left to another task or to the timer.
+	 */
+	private void deliver() {
+		// Cleared first, so anything offered from here on either ends up in
+		// this batch or schedules another delivery.
+		mDeliveryPending.set(false);
+
+		// On an executor with several threads this task may start while an
+		// earlier one is still in the listener. That one checks the queue
+		// again once it is done, after clearing mDelivering.
+		if (!mDelivering.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			deliverBatch();
+		} finally {
+			mDelivering.set(false);
+		}
+
+		// Always checked, also after an empty batch, since tasks that gave
+		// up above rely on it.
+		int remaining = mSize.get();
+		if (remaining <= 0) {
+			return;
+		}
+		if (remaining >= mMaxBatchSize || mMaxDelay == 0 || mClosed) {
+			scheduleDelivery();
+		} else {
+			armTimer();
+		}
+	}
+
+	private void deliverBatch() {
+		int waiting = mSize.get();
+		if (waiting <= 0) {
+			return;
+		}
+
+		List<ScanResult> batch = new ArrayList<ScanResult>(Math.min(waiting, mMaxBatchSize));
+		while (batch.size() < mMaxBatchSize) {
+			ScanResult result = mQueue.poll();
+			if (result == null) {
+				break;
+			}
+			mSize.decrementAndGet();
+			batch.add(result);
+		}
+
+		if (!batch.isEmpty()) {
+			mListener.onResults(batch);
+			mDelivered.addAndGet(batch.size());
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package com.dm.zbar.android.scanner;
 
-import net.sourceforge.zbar.Config;
 import net.sourceforge.zbar.Image;
 import net.sourceforge.zbar.ImageScanner;
 import net.sourceforge.zbar.Symbol;
@@ -21,55 +20,161 @@ public class ScannerHelper implements Camera.PreviewCallback {
 		public void onResult(String symData, int symType);
 	}
 
+	/**
+	 * Receives the raw symbol payload instead of a String, which skips the
+	 * String conversion for every hit. See
+	 * {@link ScannerHelper#setRawResultListener(RawResultListener)}.
+	 */
+	public interface RawResultListener {
+		public void onRawResult(SymbolBytes symbol);
+	}
+
 	ScannerResultListener mResultListener;
 
-	private ImageScanner mScanner;
+	private volatile RawResultListener mRawResultListener;
+
+	private final ImageScanner mScanner;
+
+	// Set from the UI thread, read once per frame on the preview callback
+	// thread.
+	private volatile LumaPreprocessor mPreprocessor;
+
+	private volatile DecodeGovernor mGovernor;
+
+	private volatile CameraWrapper mCamera;
 
 	public ScannerHelper(int[] scanModes, ScannerResultListener resultListener) {
 		mResultListener = resultListener;
 
-		mScanner = new ImageScanner();
-		mScanner.setConfig(0, Config.X_DENSITY, 3);
-		mScanner.setConfig(0, Config.Y_DENSITY, 3);
+		mScanner = ImageScannerFactory.create(scanModes);
+	}
 
-		int[] symbols = scanModes;
-		if (symbols != null) {
-			mScanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
-			for (int symbol : symbols) {
-				mScanner.setConfig(symbol, Config.ENABLE, 1);
-			}
-		}
+	/**
+	 * Sets a listener that receives results as {@link SymbolBytes}, or null to
+	 * go back to the {@link ScannerResultListener}. While set, it replaces the
+	 * {@link ScannerResultListener}, which may then be null.
+	 */
+	public void setRawResultListener(RawResultListener rawResultListener) {
+		mRawResultListener = rawResultListener;
+	}
+
+	/**
+	 * Sets a preprocessor to run on the Y plane of every frame before it is
+	 * scanned, or null to scan frames unmodified.
+	 */
+	public void setPreprocessor(LumaPreprocessor preprocessor) {
+		mPreprocessor = preprocessor;
+	}
+
+	/**
+	 * Sets a governor that decides which frames are decoded, or null to decode
+	 * every frame.
+	 */
+	public void setGovernor(DecodeGovernor governor) {
+		mGovernor = governor;
+	}
+
+	/**
+	 * Lets frames be sized from the camera's published configuration instead
+	 * of querying the camera parameters on every frame. Frames that don't
+	 * match the current preview size are dropped.
+	 */
+	public void setCamera(CameraWrapper camera) {
+		mCamera = camera;
 	}
 
 	public Camera.PreviewCallback getCameraPreviewCallback() {
 		return this;
 	}
 
-	public synchronized void onPreviewFrame(byte[] data, Camera camera) {
-		Camera.Parameters parameters;
-		try {
-			parameters = camera.getParameters();
-		} catch (RuntimeException e) {
-			Log.e(LOG_TAG, "Unable to get camera parameters", e);
-			return;
+	/**
+	 * Called by the camera for each frame, always on the same thread. The
+	 * scanner, preprocessor and governor are only ever used from there, so no
+	 * locking is needed.
+	 */
+	public void onPreviewFrame(byte[] data, Camera camera) {
+		final int width;
+		final int height;
+
+		final CameraWrapper wrapper = mCamera;
+		final CameraWrapper.Configuration config = wrapper != null ? wrapper.getConfiguration() : null;
+		if (config != null && config.hasPreviewSize()) {
+			if (wrapper.getState() != CameraWrapper.STATE_PREVIEWING || data.length != config.getFrameLength()) {
+				// Frame was captured before a preview size change, or the
+				// preview is being stopped.
+				return;
+			}
+			width = config.previewWidth;
+			height = config.previewHeight;
+		} else {
+			Camera.Parameters parameters;
+			try {
+				parameters = camera.getParameters();
+			} catch (RuntimeException e) {
+				Log.e(LOG_TAG, "Unable to get camera parameters", e);
+				return;
+			}
+
+			Camera.Size size = parameters.getPreviewSize();
+			width = size.width;
+			height = size.height;
 		}
 
-		Camera.Size size = parameters.getPreviewSize();
+		scanFrame(data, width, height);
+	}
 
-		Image barcode = new Image(size.width, size.height, "Y800");
+	/**
+	 * Decodes one Y800 frame and reports the first symbol found.
+	 *
+	 * @return true if a result was reported.
+	 */
+	boolean scanFrame(byte[] data, int width, int height) {
+		final DecodeGovernor governor = mGovernor;
+		if (governor != null && !governor.shouldDecode(data, width, height)) {
+			return false;
+		}
+
+		final LumaPreprocessor preprocessor = mPreprocessor;
+		if (preprocessor != null && data.length >= width * height) {
+			preprocessor.process(data, width, height);
+		}
+
+		Image barcode = new Image(width, height, "Y800");
 		barcode.setData(data);
 
 		int result = mScanner.scanImage(barcode);
 
+		final RawResultListener rawListener = mRawResultListener;
+		boolean found = false;
 		if (result != 0) {
 			SymbolSet syms = mScanner.getResults();
 			for (Symbol sym : syms) {
-				String symData = sym.getData();
-				if (!TextUtils.isEmpty(symData)) {
-					mResultListener.onResult(symData, sym.getType());
-					break;
+				if (rawListener != null) {
+					// Same filter as the String path: getData() ends at the
+					// first NUL, so a payload starting with one reads as empty.
+					byte[] symBytes = sym.getDataBytes();
+					if (symBytes != null && symBytes.length > 0 && symBytes[0] != 0) {
+						found = true;
+						rawListener.onRawResult(new SymbolBytes(symBytes, sym.getType()));
+						break;
+					}
+				} else {
+					String symData = sym.getData();
+					if (!TextUtils.isEmpty(symData)) {
+						found = true;
+						mResultListener.onResult(symData, sym.getType());
+						break;
+					}
 				}
 			}
 		}
+
+		if (preprocessor != null) {
+			preprocessor.onScanResult(found);
+		}
+		if (governor != null) {
+			governor.onDecodeFinished(found);
+		}
+		return found;
 	}
 }
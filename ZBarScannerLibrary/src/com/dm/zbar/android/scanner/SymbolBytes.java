@@ -0,0 +1,138 @@
+package com.dm.zbar.android.scanner;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.sourceforge.zbar.Symbol;
+
+/**
+ * The raw payload of a decoded symbol, as returned by
+ * {@link Symbol#getDataBytes()}.
+ * <p>
+ * The hash of the bytes is computed once up front, so the symbol can be
+ * looked up in a {@link SymbolBytesSet} without further work. The text is
+ * only decoded when {@link #getText()} is first called.
+ */
+public final class SymbolBytes {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final byte[] mData;
+	private final int mType;
+	private final int mHash;
+
+	private String mText;
+
+	/**
+	 * @param data
+	 *            Symbol payload. The array is used as is and must not be
+	 *            modified afterwards.
+	 * @param type
+	 *            Symbol type, see {@link Symbol}.
+	 */
+	public SymbolBytes(byte[] data, int type) {
+		mData = data;
+		mType = type;
+		mHash = hash(data, 0, data.length);
+	}
+
+	public int getType() {
+		return mType;
+	}
+
+	public int length() {
+		return mData.length;
+	}
+
+	/**
+	 * @return The payload itself, not a copy. It must not be modified.
+	 */
+	public byte[] getBytes() {
+		return mData;
+	}
+
+	/**
+	 * Decodes the payload as UTF-8, up to the first NUL byte. The result is
+	 * cached.
+	 * <p>
+	 * {@link Symbol#getData()} instead passes the payload to JNI's
+	 * <code>NewStringUTF</code>, which reads modified UTF-8. The two agree
+	 * for valid UTF-8 made of characters up to U+FFFF, which covers ZBar's
+	 * own text conversion of QR codes and every numeric or ASCII symbology.
+	 * They may differ for:
+	 * <ul>
+	 * <li>invalid UTF-8, such as raw ISO-8859-1 bytes: this method substitutes
+	 * U+FFFD, while what <code>NewStringUTF</code> does depends on the
+	 * runtime,</li>
+	 * <li>4 byte sequences (characters above U+FFFF): this method returns a
+	 * surrogate pair, which older runtimes do not,</li>
+	 * <li>the overlong NUL <code>C0 80</code>: this method substitutes U+FFFD,
+	 * <code>NewStringUTF</code> returns U+0000.</li>
+	 * </ul>
+	 * Use {@link #getBytes()} where the exact payload matters.
+	 */
+	public String getText() {
+		String text = mText;
+		if (text == null) {
+			int length = 0;
+			while (length < mData.length && mData[length] != 0) {
+				length++;
+			}
+			text = new String(mData, 0, length, UTF_8);
+			mText = text;
+		}
+		return text;
+	}
+
+	public boolean contentEquals(byte[] data, int offset, int length) {
+		if (length != mData.length) {
+			return false;
+		}
+		final byte[] own = mData;
+		for (int i = 0; i < length; i++) {
+			if (own[i] != data[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof SymbolBytes)) {
+			return false;
+		}
+		SymbolBytes other = (SymbolBytes) o;
+		return mHash == other.mHash && Arrays.equals(mData, other.mData);
+	}
+
+	/**
+	 * The hash depends only on the payload, not on the type.
+	 */
+	@Override
+	public int hashCode() {
+		return mHash;
+	}
+
+	@Override
+	public String toString() {
+		return getText();
+	}
+
+	/**
+	 * FNV-1a hash of a byte range, the same as {@link #hashCode()} of a
+	 * {@link SymbolBytes} holding those bytes.
+	 */
+	public static int hash(byte[] data, int offset, int length) {
+		int hash = 0x811c9dc5;
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			hash ^= data[i] & 0xff;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,112 @@
+package com.dm.zbar.android.scanner;
+
+/**
+ * Set of symbol payloads for "already seen" checks during continuous
+ * scanning.
+ * <p>
+ * Entries are compared by payload bytes only. Lookups use the hash stored in
+ * each {@link SymbolBytes} (or compute one over a byte range) and never
+ * allocate. The table uses open addressing with linear probing and grows
+ * once it is three quarters full. Instances are not thread safe.
+ */
+public class SymbolBytesSet {
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private SymbolBytes[] mEntries;
+	private int[] mHashes;
+	private int mSize;
+
+	public SymbolBytesSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public SymbolBytesSet(int expectedSize) {
+		int capacity = 16;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		mEntries = new SymbolBytes[capacity];
+		mHashes = new int[capacity];
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean contains(SymbolBytes symbol) {
+		final byte[] data = symbol.getBytes();
+		return indexOf(data, 0, data.length, symbol.hashCode()) >= 0;
+	}
+
+	public boolean contains(byte[] data, int offset, int length) {
+		return indexOf(data, offset, length, SymbolBytes.hash(data, offset, length)) >= 0;
+	}
+
+	/**
+	 * @return true if the payload was not in the set yet.
+	 */
+	public boolean add(SymbolBytes symbol) {
+		final byte[] data = symbol.getBytes();
+		final int hash = symbol.hashCode();
+		if (indexOf(data, 0, data.length, hash) >= 0) {
+			return false;
+		}
+
+		if ((mSize + 1) * 4 > mEntries.length * 3) {
+			grow();
+		}
+		insert(symbol, hash);
+		mSize++;
+		return true;
+	}
+
+	public void clear() {
+		for (int i = 0; i < mEntries.length; i++) {
+			mEntries[i] = null;
+		}
+		mSize = 0;
+	}
+
+	private int indexOf(byte[] data, int offset, int length, int hash) {
+		final SymbolBytes[] entries = mEntries;
+		final int[] hashes = mHashes;
+		final int mask = entries.length - 1;
+		for (int i = mix(hash) & mask;; i = (i + 1) & mask) {
+			SymbolBytes entry = entries[i];
+			if (entry == null) {
+				return -1;
+			}
+			if (hashes[i] == hash && entry.contentEquals(data, offset, length)) {
+				return i;
+			}
+		}
+	}
+
+	private void insert(SymbolBytes symbol, int hash) {
+		final int mask = mEntries.length - 1;
+		int i = mix(hash) & mask;
+		while (mEntries[i] != null) {
+			i = (i + 1) & mask;
+		}
+		mEntries[i] = symbol;
+		mHashes[i] = hash;
+	}
+
+	private void grow() {
+		SymbolBytes[] oldEntries = mEntries;
+		int[] oldHashes = mHashes;
+		mEntries = new SymbolBytes[oldEntries.length * 2];
+		mHashes = new int[oldEntries.length * 2];
+		for (int i = 0; i < oldEntries.length; i++) {
+			if (oldEntries[i] != null) {
+				insert(oldEntries[i], oldHashes[i]);
+			}
+		}
+	}
+
+	// Spreads the high bits into the low ones used for indexing.
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
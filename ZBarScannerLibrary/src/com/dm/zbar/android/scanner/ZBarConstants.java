@@ -4,4 +4,6 @@ public interface ZBarConstants {
     public static final String SCAN_MODES = "SCAN_MODES";
     public static final String SCAN_RESULT = "SCAN_RESULT";
     public static final String SCAN_RESULT_TYPE = "SCAN_RESULT_TYPE";
+    public static final String ENABLE_PREPROCESSING = "ENABLE_PREPROCESSING";
+    public static final String LIMIT_DECODE_RATE = "LIMIT_DECODE_RATE";
 }
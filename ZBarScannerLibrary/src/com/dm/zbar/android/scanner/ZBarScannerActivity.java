@@ -7,7 +7,8 @@ import android.text.TextUtils;
 
 import com.dm.zbar.android.scanner.ScannerHelper.ScannerResultListener;
 
-public class ZBarScannerActivity extends Activity implements ZBarConstants, ScannerResultListener {
+public class ZBarScannerActivity extends Activity implements ZBarConstants, ScannerResultListener,
+		DecodeGovernor.RateListener {
 
 	private static final String TAG = "ZBarScanner/ZBarScannerActivity";
 	private CameraPreview mPreview;
@@ -26,10 +27,19 @@ public class ZBarScannerActivity extends Activity implements ZBarConstants, Scan
 
 		// Create and configure the ImageScanner;
 		mScanner = new ScannerHelper(getIntent().getIntArrayExtra(SCAN_MODES), this);
+		if (getIntent().getBooleanExtra(ENABLE_PREPROCESSING, false)) {
+			mScanner.setPreprocessor(new LumaPreprocessor());
+		}
+		if (getIntent().getBooleanExtra(LIMIT_DECODE_RATE, false)) {
+			DecodeGovernor governor = new DecodeGovernor();
+			governor.setRateListener(this);
+			mScanner.setGovernor(governor);
+		}
 
 		// Create camera. Use the first/default i.e. the first rear facing
 		// camera.
 		mCamera = new CameraWrapper(0);
+		mScanner.setCamera(mCamera);
 
 		// Create a RelativeLayout container that will hold a SurfaceView,
 		// and set it as the content of our activity.
@@ -56,6 +66,11 @@ public class ZBarScannerActivity extends Activity implements ZBarConstants, Scan
 		mCamera.release();
 	}
 
+	@Override
+	public void onStateChanged(int state) {
+		mCamera.setReducedFrameRate(state == DecodeGovernor.STATE_IDLE);
+	}
+
 	public void cancelRequest() {
 		setResult(Activity.RESULT_CANCELED);
 		finish();
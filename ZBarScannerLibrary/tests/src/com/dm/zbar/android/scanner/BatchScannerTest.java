@@ -0,0 +1,507 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.zbar.Symbol;
+import android.test.AndroidTestCase;
+
+/**
+ * Runs {@link BatchScanner} against ZBar, so it needs the native library and
+ * only runs on a device or emulator.
+ */
+public class BatchScannerTest extends AndroidTestCase {
+
+	private static final String EAN = "5901234123457";
+	private static final String CODE128 = "ZBar-128";
+
+	private TestBarcodes.Frame mEan;
+	private TestBarcodes.Frame mCode128;
+	private Recorder mRecorder;
+	private BatchScanner mScanner;
+	private File mDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mEan = TestBarcodes.ean13(EAN.substring(0, 12), 3, 60);
+		mCode128 = TestBarcodes.code128(CODE128, 3, 60);
+		mRecorder = new Recorder();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (mScanner != null) {
+			mScanner.shutdown();
+			assertTrue(mScanner.awaitTermination(10, TimeUnit.SECONDS));
+		}
+		if (mDir != null) {
+			for (File file : mDir.listFiles()) {
+				file.delete();
+			}
+			mDir.delete();
+		}
+		super.tearDown();
+	}
+
+	public void testY800() throws Exception {
+		start(1, 4);
+		mScanner.submitY800(mEan.data, mEan.width, mEan.height, "ean");
+		mScanner.submitY800(mCode128.data, mCode128.width, mCode128.height, "code128");
+		finish();
+
+		mRecorder.assertResult("ean", EAN, Symbol.EAN13);
+		mRecorder.assertResult("code128", CODE128, Symbol.CODE128);
+		assertEquals(2, mScanner.getScannedImageCount());
+		assertTrue(mScanner.getTotalScanTime(TimeUnit.NANOSECONDS) > 0);
+	}
+
+	public void testPgm() throws Exception {
+		start(2, 4);
+		mScanner.submitPgm(TestBarcodes.toPgm(mEan), "8 bit");
+		mScanner.submitPgm(TestBarcodes.toPgm(TestBarcodes.reduce(mEan.data, 15), mEan.width, mEan.height, 15),
+				"4 bit");
+		mScanner.submitPgm(TestBarcodes.toPgm(TestBarcodes.reduce(mEan.data, 1), mEan.width, mEan.height, 1),
+				"1 bit");
+		mScanner.submitPgm(TestBarcodes.toPgm16(mEan.data, mEan.width, mEan.height), "16 bit");
+		mScanner.submitPgm(TestBarcodes.toPgm16(mCode128.data, mCode128.width, mCode128.height), "16 bit 128");
+		finish();
+
+		mRecorder.assertResult("8 bit", EAN, Symbol.EAN13);
+		mRecorder.assertResult("4 bit", EAN, Symbol.EAN13);
+		mRecorder.assertResult("1 bit", EAN, Symbol.EAN13);
+		mRecorder.assertResult("16 bit", EAN, Symbol.EAN13);
+		mRecorder.assertResult("16 bit 128", CODE128, Symbol.CODE128);
+	}
+
+	public void testNothingFound() throws Exception {
+		TestBarcodes.Frame blank = TestBarcodes.blank(320, 240);
+
+		start(1, 4);
+		mScanner.submitY800(blank.data, blank.width, blank.height, "blank");
+		finish();
+
+		mRecorder.assertResult("blank", null, Symbol.NONE);
+	}
+
+	public void testScanModes() throws Exception {
+		mScanner = new BatchScanner(new int[] { Symbol.CODE128 }, 1, 4, mRecorder);
+		mScanner.submitY800(mEan.data, mEan.width, mEan.height, "ean");
+		mScanner.submitY800(mCode128.data, mCode128.width, mCode128.height, "code128");
+		finish();
+
+		mRecorder.assertResult("ean", null, Symbol.NONE);
+		mRecorder.assertResult("code128", CODE128, Symbol.CODE128);
+	}
+
+	public void testMalformedPgm() throws Exception {
+		byte[] pgm = TestBarcodes.toPgm(mEan);
+
+		start(2, 4);
+		mScanner.submitPgm("P6 10 10 255\n".getBytes("US-ASCII"), "magic");
+		mScanner.submitPgm("P5 10 x 255\n".getBytes("US-ASCII"), "header");
+		mScanner.submitPgm("P5 10 10 0\n".getBytes("US-ASCII"), "maxval");
+		mScanner.submitPgm("P5 65535 65535 255\n".getBytes("US-ASCII"), "too large");
+		mScanner.submitPgm(copyOf(pgm, pgm.length - 1), "truncated");
+		byte[] pgm16 = TestBarcodes.toPgm16(mEan.data, mEan.width, mEan.height);
+		mScanner.submitPgm(copyOf(pgm16, pgm16.length - 1), "truncated 16");
+		mScanner.submitPgm(pgm, "good");
+		finish();
+
+		mRecorder.assertError("magic", IOException.class);
+		mRecorder.assertError("header", IOException.class);
+		mRecorder.assertError("maxval", IOException.class);
+		mRecorder.assertError("too large", IOException.class);
+		mRecorder.assertError("truncated", EOFException.class);
+		mRecorder.assertError("truncated 16", EOFException.class);
+		mRecorder.assertResult("good", EAN, Symbol.EAN13);
+		assertEquals(1, mScanner.getScannedImageCount());
+	}
+
+	public void testInvalidArguments() throws Exception {
+		start(1, 4);
+		try {
+			mScanner.submitY800(new byte[10], 4, 4, "short");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			mScanner.submitY800(new byte[10], 0, 4, "empty");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			mScanner.submitFile(new File("unused"), 65536, 65536, "too large");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			new BatchScanner(null, 0, 1, mRecorder);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		finish();
+		assertEquals(0, mRecorder.size());
+	}
+
+	public void testFiles() throws Exception {
+		mDir = new File(getContext().getCacheDir(), "BatchScannerTest");
+		assertTrue(mDir.isDirectory() || mDir.mkdirs());
+		File ean = write("ean.pgm", TestBarcodes.toPgm(mEan));
+		File code128 = write("code128.PGM", TestBarcodes.toPgm16(mCode128.data, mCode128.width, mCode128.height));
+		File broken = write("broken.pgm", "P5 1 1".getBytes("US-ASCII"));
+		write("ignored.txt", TestBarcodes.toPgm(mEan));
+		File raw = write("ean.y800", mEan.data);
+
+		start(2, 4);
+		assertEquals(3, mScanner.submitDirectory(mDir));
+		mScanner.submitFile(raw, mEan.width, mEan.height, "raw");
+		mScanner.submitFile(raw, mEan.width, mEan.height + 1, "raw truncated");
+		mScanner.submitFile(new File(mDir, "missing.pgm"), "missing");
+		finish();
+
+		assertEquals(6, mRecorder.size());
+		mRecorder.assertResult(ean, EAN, Symbol.EAN13);
+		mRecorder.assertResult(code128, CODE128, Symbol.CODE128);
+		mRecorder.assertError(broken, IOException.class);
+		mRecorder.assertResult("raw", EAN, Symbol.EAN13);
+		mRecorder.assertError("raw truncated", EOFException.class);
+		mRecorder.assertError("missing", FileNotFoundException.class);
+
+		try {
+			mScanner.submitDirectory(new File(mDir, "missing"));
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testEveryTagGetsOneCallback() throws Exception {
+		final byte[] eanPgm = TestBarcodes.toPgm(mEan);
+		final byte[] code128Pgm = TestBarcodes.toPgm16(mCode128.data, mCode128.width, mCode128.height);
+		final byte[] broken = "P5 12 12".getBytes("US-ASCII");
+		final TestBarcodes.Frame blank = TestBarcodes.blank(64, 64);
+		final int producers = 3;
+		final int perProducer = 60;
+
+		start(4, 2);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < perProducer; i++) {
+							Integer tag = producer * perProducer + i;
+							switch (tag % 5) {
+								case 0:
+									mScanner.submitY800(mEan.data, mEan.width, mEan.height, tag);
+									break;
+								case 1:
+									mScanner.submitPgm(eanPgm, tag);
+									break;
+								case 2:
+									mScanner.submitPgm(code128Pgm, tag);
+									break;
+								case 3:
+									mScanner.submitPgm(broken, tag);
+									break;
+								case 4:
+									mScanner.submitY800(blank.data, blank.width, blank.height, tag);
+									break;
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			threads[p].start();
+		}
+		for (Thread thread : threads) {
+			thread.join(30000);
+			assertFalse(thread.isAlive());
+		}
+		finish();
+
+		assertEquals(new ArrayList<Throwable>(), errors);
+		assertEquals(producers * perProducer, mRecorder.size());
+		for (int tag = 0; tag < producers * perProducer; tag++) {
+			switch (tag % 5) {
+				case 0:
+				case 1:
+					mRecorder.assertResult(tag, EAN, Symbol.EAN13);
+					break;
+				case 2:
+					mRecorder.assertResult(tag, CODE128, Symbol.CODE128);
+					break;
+				case 3:
+					mRecorder.assertError(tag, IOException.class);
+					break;
+				case 4:
+					mRecorder.assertResult(tag, null, Symbol.NONE);
+					break;
+			}
+		}
+	}
+
+	public void testThrowingListener() throws Exception {
+		final RuntimeException failure = new RuntimeException("listener failed");
+		mRecorder = new Recorder() {
+			@Override
+			public void onResult(Object tag, String symData, int symType) {
+				super.onResult(tag, symData, symType);
+				if ("throws".equals(tag)) {
+					throw failure;
+				}
+			}
+
+			@Override
+			public void onError(Object tag, Throwable error) {
+				super.onError(tag, error);
+				if ("error throws".equals(tag)) {
+					throw failure;
+				}
+			}
+		};
+
+		start(1, 4);
+		mScanner.submitY800(mEan.data, mEan.width, mEan.height, "throws");
+		mScanner.submitPgm(new byte[0], "error throws");
+		mScanner.submitY800(mEan.data, mEan.width, mEan.height, "after");
+		finish();
+
+		// onResult, then onError with what it threw
+		List<Call> calls = mRecorder.calls("throws");
+		assertEquals(2, calls.size());
+		assertEquals(EAN, calls.get(0).symData);
+		assertSame(failure, calls.get(1).error);
+
+		mRecorder.assertError("error throws", IOException.class);
+		// The worker survived both
+		mRecorder.assertResult("after", EAN, Symbol.EAN13);
+	}
+
+	public void testOutOfMemory() throws Exception {
+		// Fits in an int, not in the heap
+		byte[] huge = "P5 46000 46000 255\n".getBytes("US-ASCII");
+
+		start(1, 4);
+		mScanner.submitPgm(TestBarcodes.toPgm(mEan), "before");
+		mScanner.submitPgm(huge, "huge");
+		mScanner.submitPgm(TestBarcodes.toPgm(mEan), "after");
+		finish();
+
+		mRecorder.assertResult("before", EAN, Symbol.EAN13);
+		mRecorder.assertError("huge", OutOfMemoryError.class);
+		mRecorder.assertResult("after", EAN, Symbol.EAN13);
+	}
+
+	public void testShutdown() throws Exception {
+		start(2, 4);
+		mScanner.submitY800(mEan.data, mEan.width, mEan.height, "queued");
+		mScanner.shutdown();
+		// A second call is harmless
+		mScanner.shutdown();
+
+		try {
+			mScanner.submitY800(mEan.data, mEan.width, mEan.height, "late");
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			mScanner.submitPgm(TestBarcodes.toPgm(mEan), "late");
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+
+		assertTrue(mScanner.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(1, mRecorder.size());
+		mRecorder.assertResult("queued", EAN, Symbol.EAN13);
+	}
+
+	public void testAwaitTerminationTimesOut() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		mRecorder = new Recorder() {
+			@Override
+			public void onResult(Object tag, String symData, int symType) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.onResult(tag, symData, symType);
+			}
+		};
+
+		start(1, 4);
+		mScanner.submitY800(mEan.data, mEan.width, mEan.height, "blocked");
+		mScanner.shutdown();
+		assertFalse(mScanner.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertTrue(mScanner.awaitTermination(10, TimeUnit.SECONDS));
+		mRecorder.assertResult("blocked", EAN, Symbol.EAN13);
+	}
+
+	/**
+	 * Producers blocked on a full queue while shutdown() runs must either be
+	 * rejected or have their image scanned, never silently dropped.
+	 */
+	public void testShutdownWhileSubmitting() throws Exception {
+		final TestBarcodes.Frame blank = TestBarcodes.blank(64, 64);
+		final AtomicInteger accepted = new AtomicInteger();
+
+		for (int round = 0; round < 20; round++) {
+			mRecorder = new Recorder();
+			accepted.set(0);
+			start(1, 1);
+
+			Thread[] threads = new Thread[4];
+			final CountDownLatch started = new CountDownLatch(threads.length);
+			for (int p = 0; p < threads.length; p++) {
+				final int producer = p;
+				threads[p] = new Thread() {
+					@Override
+					public void run() {
+						started.countDown();
+						for (int i = 0; i < 1000; i++) {
+							try {
+								mScanner.submitY800(blank.data, blank.width, blank.height, producer * 1000 + i);
+								accepted.incrementAndGet();
+							} catch (IllegalStateException e) {
+								return;
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+					}
+				};
+				threads[p].start();
+			}
+			started.await();
+			mScanner.shutdown();
+			for (Thread thread : threads) {
+				thread.join(30000);
+				assertFalse(thread.isAlive());
+			}
+			assertTrue(mScanner.awaitTermination(30, TimeUnit.SECONDS));
+
+			assertEquals("round " + round, accepted.get(), mRecorder.size());
+			assertEquals("round " + round, accepted.get(), mScanner.getScannedImageCount());
+			mScanner = null;
+		}
+	}
+
+	private void start(int threads, int queueCapacity) {
+		mScanner = new BatchScanner(new int[] { Symbol.EAN13, Symbol.CODE128 }, threads, queueCapacity, mRecorder);
+	}
+
+	private void finish() throws InterruptedException {
+		mScanner.shutdown();
+		assertTrue(mScanner.awaitTermination(30, TimeUnit.SECONDS));
+	}
+
+	private File write(String name, byte[] data) throws IOException {
+		File file = new File(mDir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static byte[] copyOf(byte[] data, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(data, 0, copy, 0, length);
+		return copy;
+	}
+
+	private static class Call {
+		final String symData;
+		final int symType;
+		final Throwable error;
+
+		Call(String symData, int symType, Throwable error) {
+			this.symData = symData;
+			this.symType = symType;
+			this.error = error;
+		}
+
+		@Override
+		public String toString() {
+			return error != null ? error.toString() : symData + " (" + symType + ")";
+		}
+	}
+
+	private static class Recorder implements BatchScanner.BatchResultListener {
+		private final Map<Object, List<Call>> mCalls = new HashMap<Object, List<Call>>();
+		private int mSize;
+
+		@Override
+		public void onResult(Object tag, String symData, int symType) {
+			add(tag, new Call(symData, symType, null));
+		}
+
+		@Override
+		public void onError(Object tag, Throwable error) {
+			add(tag, new Call(null, Symbol.NONE, error));
+		}
+
+		private synchronized void add(Object tag, Call call) {
+			List<Call> calls = mCalls.get(tag);
+			if (calls == null) {
+				calls = new ArrayList<Call>();
+				mCalls.put(tag, calls);
+			}
+			calls.add(call);
+			mSize++;
+		}
+
+		synchronized int size() {
+			return mSize;
+		}
+
+		synchronized List<Call> calls(Object tag) {
+			List<Call> calls = mCalls.get(tag);
+			return calls == null ? new ArrayList<Call>() : new ArrayList<Call>(calls);
+		}
+
+		void assertResult(Object tag, String symData, int symType) {
+			List<Call> calls = calls(tag);
+			assertEquals(tag + ": " + calls, 1, calls.size());
+			Call call = calls.get(0);
+			assertNull(tag + ": " + call, call.error);
+			assertEquals(tag.toString(), symData, call.symData);
+			assertEquals(tag.toString(), symType, call.symType);
+		}
+
+		void assertError(Object tag, Class<? extends Throwable> type) {
+			List<Call> calls = calls(tag);
+			assertEquals(tag + ": " + calls, 1, calls.size());
+			assertTrue(tag + ": " + calls, type.isInstance(calls.get(0).error));
+		}
+	}
+}
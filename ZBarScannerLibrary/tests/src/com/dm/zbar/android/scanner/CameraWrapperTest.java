@@ -0,0 +1,331 @@
+package com.dm.zbar.android.scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+import android.hardware.Camera;
+import android.view.Surface;
+
+public class CameraWrapperTest extends TestCase {
+
+	private FakeCameraDevice.Registry mRegistry;
+	private TestCameraWrapper mWrapper;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mRegistry = new FakeCameraDevice.Registry();
+		mWrapper = new TestCameraWrapper(mRegistry);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mWrapper.release();
+		assertEquals(0, mRegistry.open.get());
+		assertEquals(new ArrayList<String>(), mRegistry.violations);
+		super.tearDown();
+	}
+
+	public void testLifecycle() {
+		assertEquals(CameraWrapper.STATE_CLOSED, mWrapper.getState());
+
+		assertTrue(mWrapper.open(null));
+		assertEquals(CameraWrapper.STATE_OPEN, mWrapper.getState());
+		FakeCameraDevice device = mWrapper.device.get();
+		assertEquals(90, device.getDisplayOrientation());
+		assertEquals(90, mWrapper.getConfiguration().displayOrientation);
+		assertTrue(mWrapper.getConfiguration().isPortrait());
+
+		mWrapper.startPreview();
+		assertEquals(CameraWrapper.STATE_PREVIEWING, mWrapper.getState());
+		assertTrue(device.isPreviewing());
+
+		mWrapper.stopPreview();
+		assertEquals(CameraWrapper.STATE_OPEN, mWrapper.getState());
+		assertFalse(device.isPreviewing());
+
+		mWrapper.release();
+		assertEquals(CameraWrapper.STATE_CLOSED, mWrapper.getState());
+		assertTrue(device.isReleased());
+		assertSame(CameraWrapper.Configuration.EMPTY, mWrapper.getConfiguration());
+
+		// Can be opened again
+		assertTrue(mWrapper.open(null));
+		assertNotSame(device, mWrapper.device.get());
+		assertEquals(2, mRegistry.opened.get());
+	}
+
+	public void testOpenTwiceFails() {
+		assertTrue(mWrapper.open(null));
+		assertFalse(mWrapper.open(null));
+		assertEquals(1, mRegistry.opened.get());
+	}
+
+	public void testUnavailableCamera() {
+		mWrapper.unavailable = true;
+		assertFalse(mWrapper.open(null));
+		assertEquals(CameraWrapper.STATE_CLOSED, mWrapper.getState());
+
+		mWrapper.unavailable = false;
+		assertTrue(mWrapper.open(null));
+	}
+
+	public void testCallsInWrongStateAreIgnored() {
+		mWrapper.startPreview();
+		mWrapper.stopPreview();
+		mWrapper.autoFocus(null);
+		mWrapper.setReducedFrameRate(true);
+		assertEquals(CameraWrapper.STATE_CLOSED, mWrapper.getState());
+		assertEquals(0, mRegistry.opened.get());
+
+		assertTrue(mWrapper.open(null));
+		FakeCameraDevice device = mWrapper.device.get();
+		mWrapper.stopPreview();
+		mWrapper.autoFocus(null);
+		assertEquals(CameraWrapper.STATE_OPEN, mWrapper.getState());
+		assertEquals(0, device.getAutoFocusCount());
+
+		mWrapper.startPreview();
+		mWrapper.autoFocus(null);
+		assertEquals(1, device.getAutoFocusCount());
+		mWrapper.cancelAutoFocus();
+		mWrapper.autoFocus(null);
+		assertEquals(1, device.getAutoFocusCount());
+	}
+
+	public void testPreviewSizeChangeWhilePreviewing() {
+		mWrapper.rotation = Surface.ROTATION_90;
+		assertTrue(mWrapper.open(null));
+		FakeCameraDevice device = mWrapper.device.get();
+		assertFalse(mWrapper.getConfiguration().isPortrait());
+
+		mWrapper.setTargetPreviewSize(640, 480);
+		mWrapper.startPreview();
+		assertConfiguration(640, 480);
+
+		// The fake refuses size changes while previewing, so this only works
+		// if the preview is stopped and restarted around it.
+		mWrapper.setTargetPreviewSize(1200, 700);
+		assertConfiguration(1280, 720);
+		assertEquals(1280, device.getPreviewWidth());
+		assertTrue(device.isPreviewing());
+		assertEquals(CameraWrapper.STATE_PREVIEWING, mWrapper.getState());
+
+		mWrapper.rotation = Surface.ROTATION_0;
+		assertTrue(mWrapper.fixCameraDisplayOrientation());
+		assertEquals(90, device.getDisplayOrientation());
+		assertTrue(mWrapper.getConfiguration().isPortrait());
+		assertFalse(mWrapper.fixCameraDisplayOrientation());
+	}
+
+	public void testReducedFrameRate() {
+		assertTrue(mWrapper.open(null));
+		FakeCameraDevice device = mWrapper.device.get();
+
+		mWrapper.setReducedFrameRate(true);
+		assertEquals(10000, device.getFpsMax());
+		mWrapper.setReducedFrameRate(false);
+		assertEquals(30000, device.getFpsMax());
+	}
+
+	public void testReleaseWhileOpening() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		mWrapper.openEntered = entered;
+		mWrapper.openProceed = proceed;
+
+		final AtomicReference<Boolean> opened = new AtomicReference<Boolean>();
+		Thread opener = new Thread() {
+			@Override
+			public void run() {
+				opened.set(mWrapper.open(null));
+			}
+		};
+		opener.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		assertEquals(CameraWrapper.STATE_OPENING, mWrapper.getState());
+
+		// Doesn't wait for open(), which owns the camera until it returns.
+		mWrapper.release();
+		assertEquals(CameraWrapper.STATE_RELEASING, mWrapper.getState());
+		assertFalse(mWrapper.open(null));
+
+		proceed.countDown();
+		opener.join(5000);
+		assertFalse(opener.isAlive());
+
+		assertEquals(Boolean.FALSE, opened.get());
+		assertEquals(CameraWrapper.STATE_CLOSED, mWrapper.getState());
+		assertTrue(mWrapper.device.get().isReleased());
+		assertEquals(0, mRegistry.open.get());
+		assertSame(CameraWrapper.Configuration.EMPTY, mWrapper.getConfiguration());
+
+		mWrapper.openEntered = null;
+		mWrapper.openProceed = null;
+		assertTrue(mWrapper.open(null));
+	}
+
+	public void testConcurrentControl() throws Exception {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference<String> inconsistent = new AtomicReference<String>();
+		final List<Throwable> errors = new ArrayList<Throwable>();
+
+		// Every published configuration must be one the camera was actually
+		// set to: a supported size, and the orientation for its rotation.
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (!stop.get()) {
+					CameraWrapper.Configuration config = mWrapper.getConfiguration();
+					String problem = check(config);
+					if (problem != null) {
+						inconsistent.compareAndSet(null, problem);
+					}
+				}
+			}
+		};
+		reader.start();
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 10000; i++) {
+							randomOperation(random);
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join(60000);
+			assertFalse(thread.isAlive());
+		}
+		stop.set(true);
+		reader.join();
+
+		assertEquals(new ArrayList<Throwable>(), errors);
+		assertNull(inconsistent.get(), inconsistent.get());
+
+		mWrapper.release();
+		assertEquals(CameraWrapper.STATE_CLOSED, mWrapper.getState());
+		assertTrue(mRegistry.opened.get() > 1);
+	}
+
+	private void randomOperation(Random random) {
+		switch (random.nextInt(10)) {
+			case 0:
+				mWrapper.open(null);
+				break;
+			case 1:
+				mWrapper.release();
+				break;
+			case 2:
+			case 3:
+				mWrapper.startPreview();
+				break;
+			case 4:
+				mWrapper.stopPreview();
+				break;
+			case 5:
+				int[] size = FakeCameraDevice.PREVIEW_SIZES.get(random.nextInt(FakeCameraDevice.PREVIEW_SIZES.size()));
+				mWrapper.setTargetPreviewSize(size[0], size[1]);
+				break;
+			case 6:
+				mWrapper.rotation = random.nextInt(4);
+				mWrapper.fixCameraDisplayOrientation();
+				break;
+			case 7:
+				mWrapper.setReducedFrameRate(random.nextBoolean());
+				break;
+			case 8:
+				mWrapper.autoFocus(null);
+				mWrapper.cancelAutoFocus();
+				break;
+			case 9:
+				mWrapper.setPreviewCallback(null);
+				break;
+		}
+	}
+
+	private static String check(CameraWrapper.Configuration config) {
+		if (config == CameraWrapper.Configuration.EMPTY) {
+			return null;
+		}
+		int expected = (FakeCameraDevice.SENSOR_ORIENTATION - config.rotation * 90 + 360) % 360;
+		if (config.displayOrientation != expected) {
+			return "orientation " + config.displayOrientation + " for rotation " + config.rotation;
+		}
+		if (config.hasPreviewSize()) {
+			for (int[] size : FakeCameraDevice.PREVIEW_SIZES) {
+				if (size[0] == config.previewWidth && size[1] == config.previewHeight) {
+					return null;
+				}
+			}
+			return "unsupported size " + config.previewWidth + "x" + config.previewHeight;
+		}
+		return null;
+	}
+
+	private void assertConfiguration(int width, int height) {
+		CameraWrapper.Configuration config = mWrapper.getConfiguration();
+		assertEquals(width, config.previewWidth);
+		assertEquals(height, config.previewHeight);
+		assertEquals(width * height * 3 / 2, config.getFrameLength());
+	}
+
+	private static class TestCameraWrapper extends CameraWrapper {
+		private final FakeCameraDevice.Registry registry;
+
+		final AtomicReference<FakeCameraDevice> device = new AtomicReference<FakeCameraDevice>();
+		volatile int rotation = Surface.ROTATION_0;
+		volatile boolean unavailable;
+		volatile CountDownLatch openEntered;
+		volatile CountDownLatch openProceed;
+
+		TestCameraWrapper(FakeCameraDevice.Registry registry) {
+			super(Camera.CameraInfo.CAMERA_FACING_BACK);
+			this.registry = registry;
+		}
+
+		@Override
+		CameraDevice openDevice(int id) {
+			if (unavailable) {
+				return null;
+			}
+
+			FakeCameraDevice opened = new FakeCameraDevice(registry);
+			device.set(opened);
+
+			CountDownLatch entered = openEntered;
+			if (entered != null) {
+				entered.countDown();
+				try {
+					openProceed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return opened;
+		}
+
+		@Override
+		int getDisplayRotation() {
+			return rotation;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package com.dm.zbar.android.scanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DecodeGovernorTest extends TestCase {
+
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+
+	private static final long MS = 1000000L;
+
+	private static final byte[] STILL = frame(100);
+	private static final byte[] MOVED = frame(200);
+
+	private FakeClock mClock;
+	private final List<Integer> mStates = new ArrayList<Integer>();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mClock = new FakeClock();
+		mStates.clear();
+	}
+
+	public void testDefaultActiveDutyCycleDecodesEveryFrame() {
+		DecodeGovernor governor = create(DecodeGovernor.DEFAULT_ACTIVE_DUTY_CYCLE, 0.1f, 3000);
+
+		for (int i = 0; i < 20; i++) {
+			assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+			mClock.advance(30 * MS);
+			governor.onDecodeFinished(false);
+			mClock.advance(3 * MS);
+		}
+		assertEquals(20, governor.getDecodedFrameCount());
+		assertEquals(0, governor.getSkippedFrameCount());
+	}
+
+	public void testGoesIdleAtTimeout() {
+		DecodeGovernor governor = create(1f, 0.1f, 3000);
+
+		governor.shouldDecode(STILL, WIDTH, HEIGHT);
+		governor.onDecodeFinished(false);
+
+		mClock.set(2999 * MS);
+		governor.shouldDecode(STILL, WIDTH, HEIGHT);
+		assertEquals(DecodeGovernor.STATE_ACTIVE, governor.getState());
+		assertTrue(mStates.isEmpty());
+
+		mClock.set(3000 * MS);
+		governor.shouldDecode(STILL, WIDTH, HEIGHT);
+		assertEquals(DecodeGovernor.STATE_IDLE, governor.getState());
+		assertEquals(Arrays.asList(DecodeGovernor.STATE_IDLE), mStates);
+		assertEquals(0.1f, governor.getTargetDutyCycle());
+	}
+
+	public void testTimeoutCountsFromLastSymbol() {
+		DecodeGovernor governor = create(1f, 0.1f, 3000);
+
+		mClock.set(1000 * MS);
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		governor.onDecodeFinished(true);
+
+		mClock.set(3999 * MS);
+		governor.shouldDecode(STILL, WIDTH, HEIGHT);
+		assertEquals(DecodeGovernor.STATE_ACTIVE, governor.getState());
+
+		mClock.set(4000 * MS);
+		governor.shouldDecode(STILL, WIDTH, HEIGHT);
+		assertEquals(DecodeGovernor.STATE_IDLE, governor.getState());
+	}
+
+	public void testMotionWakesIdleGovernor() {
+		DecodeGovernor governor = idle();
+
+		// Long hold-off pending from the idle duty cycle
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		mClock.advance(50 * MS);
+		governor.onDecodeFinished(false);
+		mClock.advance(MS);
+		assertFalse(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+
+		assertTrue(governor.shouldDecode(MOVED, WIDTH, HEIGHT));
+		assertEquals(DecodeGovernor.STATE_ACTIVE, governor.getState());
+		assertEquals(Arrays.asList(DecodeGovernor.STATE_IDLE, DecodeGovernor.STATE_ACTIVE), mStates);
+	}
+
+	public void testSymbolWakesIdleGovernor() {
+		DecodeGovernor governor = idle();
+
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		mClock.advance(50 * MS);
+		governor.onDecodeFinished(true);
+		assertEquals(DecodeGovernor.STATE_ACTIVE, governor.getState());
+
+		mClock.advance(MS);
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+	}
+
+	public void testHoldOffKeepsTargetDutyCycle() {
+		DecodeGovernor governor = create(0.5f, 0.1f, 3000);
+
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		mClock.advance(20 * MS);
+		governor.onDecodeFinished(false);
+
+		mClock.advance(20 * MS - 1);
+		assertFalse(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		mClock.advance(1);
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		mClock.advance(10 * MS);
+		governor.onDecodeFinished(false);
+
+		// Idle: 10 ms of decoding is followed by 90 ms off, give or take the
+		// rounding of 0.1f.
+		governor = idle();
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		mClock.advance(10 * MS);
+		governor.onDecodeFinished(false);
+
+		mClock.advance(90 * MS - 1000);
+		assertFalse(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		mClock.advance(1000);
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+	}
+
+	public void testMotionWhileActiveCancelsHoldOff() {
+		DecodeGovernor governor = create(0.25f, 0.1f, 3000);
+
+		assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		mClock.advance(30 * MS);
+		governor.onDecodeFinished(false);
+
+		mClock.advance(10 * MS);
+		assertFalse(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+		assertTrue(governor.shouldDecode(MOVED, WIDTH, HEIGHT));
+		assertTrue(mStates.isEmpty());
+	}
+
+	public void testMeasuredDutyCycle() {
+		DecodeGovernor governor = create(1f, 0.1f, 60000);
+
+		// 10 ms of decoding every 40 ms
+		for (int i = 0; i < 50; i++) {
+			assertTrue(governor.shouldDecode(STILL, WIDTH, HEIGHT));
+			mClock.advance(10 * MS);
+			governor.onDecodeFinished(false);
+			mClock.advance(30 * MS);
+		}
+		assertEquals(0.25f, governor.getDutyCycle(), 0.02f);
+		assertEquals(50, governor.getDecodedFrameCount());
+		assertEquals(0, governor.getSkippedFrameCount());
+
+		// Capped at half: decoding 10 ms in every 20 ms, remaining frames
+		// skipped.
+		governor = create(0.5f, 0.1f, 60000);
+		for (int i = 0; i < 200; i++) {
+			if (governor.shouldDecode(STILL, WIDTH, HEIGHT)) {
+				mClock.advance(10 * MS);
+				governor.onDecodeFinished(false);
+			} else {
+				mClock.advance(5 * MS);
+			}
+		}
+		assertEquals(0.5f, governor.getDutyCycle(), 0.05f);
+		assertTrue(governor.getSkippedFrameCount() > 0);
+		assertEquals(200, governor.getDecodedFrameCount() + governor.getSkippedFrameCount());
+	}
+
+	public void testFinishWithoutDecodeIsRejected() {
+		DecodeGovernor governor = create(1f, 0.1f, 3000);
+		try {
+			governor.onDecodeFinished(false);
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	public void testRejectsInvalidDutyCycle() {
+		try {
+			create(0f, 0.1f, 3000);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			create(1f, 1.5f, 3000);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	private DecodeGovernor create(float active, float idle, long timeout) {
+		DecodeGovernor governor = new DecodeGovernor(mClock, active, idle, timeout);
+		governor.setRateListener(new DecodeGovernor.RateListener() {
+			@Override
+			public void onStateChanged(int state) {
+				mStates.add(state);
+			}
+		});
+		return governor;
+	}
+
+	/**
+	 * A governor that has just gone idle after a 1 second timeout.
+	 */
+	private DecodeGovernor idle() {
+		mStates.clear();
+		DecodeGovernor governor = create(1f, 0.1f, 1000);
+		governor.shouldDecode(STILL, WIDTH, HEIGHT);
+		governor.onDecodeFinished(false);
+		mClock.advance(1000 * MS);
+		governor.shouldDecode(STILL, WIDTH, HEIGHT);
+		governor.onDecodeFinished(false);
+		assertEquals(DecodeGovernor.STATE_IDLE, governor.getState());
+		mClock.advance(1000 * MS);
+		return governor;
+	}
+
+	private static byte[] frame(int luma) {
+		byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+		Arrays.fill(frame, (byte) luma);
+		return frame;
+	}
+
+	private static class FakeClock implements DecodeGovernor.Clock {
+		private long mNow;
+
+		@Override
+		public long nanoTime() {
+			return mNow;
+		}
+
+		void set(long now) {
+			mNow = now;
+		}
+
+		void advance(long nanos) {
+			mNow += nanos;
+		}
+	}
+}
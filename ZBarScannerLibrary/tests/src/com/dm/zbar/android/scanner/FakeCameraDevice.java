@@ -0,0 +1,237 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.hardware.Camera.AutoFocusCallback;
+import android.hardware.Camera.PreviewCallback;
+import android.view.SurfaceHolder;
+
+/**
+ * A {@link CameraDevice} that enforces the rules the real camera is known to
+ * be strict about. Breaking one throws, as the camera would, and is also
+ * recorded, since {@link CameraWrapper} swallows some exceptions.
+ * <ul>
+ * <li>No call after {@link #release()}.</li>
+ * <li>No concurrent calls.</li>
+ * <li>No preview size or orientation change while previewing.</li>
+ * <li>Only one device open at a time.</li>
+ * </ul>
+ */
+class FakeCameraDevice implements CameraDevice {
+
+	static final int SENSOR_ORIENTATION = 90;
+
+	static final List<int[]> PREVIEW_SIZES = Collections.unmodifiableList(Arrays.asList(new int[] { 320, 240 },
+			new int[] { 640, 480 }, new int[] { 1280, 720 }));
+
+	static final List<int[]> FPS_RANGES = Collections.unmodifiableList(Arrays.asList(new int[] { 5000, 10000 },
+			new int[] { 15000, 30000 }));
+
+	/**
+	 * State shared by all devices of one test: how many are open, and the
+	 * rules broken so far.
+	 */
+	static class Registry {
+		final AtomicInteger open = new AtomicInteger();
+		final AtomicInteger opened = new AtomicInteger();
+		final List<String> violations = Collections.synchronizedList(new ArrayList<String>());
+
+		void violation(String message) {
+			violations.add(message);
+			throw new RuntimeException(message);
+		}
+	}
+
+	private final Registry registry;
+	private final AtomicInteger calls = new AtomicInteger();
+
+	private volatile boolean released;
+	private volatile boolean previewing;
+	private volatile int displayOrientation = -1;
+	private volatile int previewWidth;
+	private volatile int previewHeight;
+	private volatile int fpsMax;
+	private volatile PreviewCallback previewCallback;
+	private volatile int autoFocusCount;
+
+	FakeCameraDevice(Registry registry) {
+		this.registry = registry;
+		registry.opened.incrementAndGet();
+		if (registry.open.incrementAndGet() > 1) {
+			registry.open.decrementAndGet();
+			registry.violation("Camera opened while another one is open");
+		}
+	}
+
+	private void enter(String method) {
+		if (calls.incrementAndGet() > 1) {
+			calls.decrementAndGet();
+			registry.violation("Concurrent call to " + method);
+		}
+		if (released) {
+			calls.decrementAndGet();
+			registry.violation(method + " called after release()");
+		}
+		// Camera calls are binder transactions; give other threads a chance
+		// to run into this one.
+		Thread.yield();
+	}
+
+	private void exit() {
+		calls.decrementAndGet();
+	}
+
+	@Override
+	public void release() {
+		enter("release");
+		released = true;
+		previewing = false;
+		registry.open.decrementAndGet();
+		exit();
+	}
+
+	@Override
+	public void startPreview() {
+		enter("startPreview");
+		previewing = true;
+		exit();
+	}
+
+	@Override
+	public void stopPreview() {
+		enter("stopPreview");
+		previewing = false;
+		exit();
+	}
+
+	@Override
+	public void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+		enter("setPreviewDisplay");
+		exit();
+	}
+
+	@Override
+	public void setPreviewCallback(PreviewCallback cb) {
+		enter("setPreviewCallback");
+		previewCallback = cb;
+		exit();
+	}
+
+	@Override
+	public void autoFocus(AutoFocusCallback cb) {
+		enter("autoFocus");
+		try {
+			if (!previewing) {
+				registry.violation("autoFocus called while not previewing");
+			}
+			autoFocusCount++;
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public void cancelAutoFocus() {
+		enter("cancelAutoFocus");
+		exit();
+	}
+
+	@Override
+	public void setDisplayOrientation(int degrees) {
+		enter("setDisplayOrientation");
+		try {
+			if (previewing) {
+				registry.violation("setDisplayOrientation called while previewing");
+			}
+			displayOrientation = degrees;
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public boolean isFrontFacing() {
+		enter("isFrontFacing");
+		exit();
+		return false;
+	}
+
+	@Override
+	public int getSensorOrientation() {
+		enter("getSensorOrientation");
+		exit();
+		return SENSOR_ORIENTATION;
+	}
+
+	@Override
+	public List<int[]> getSupportedPreviewSizes() {
+		enter("getSupportedPreviewSizes");
+		exit();
+		return PREVIEW_SIZES;
+	}
+
+	@Override
+	public void setPreviewSize(int width, int height) {
+		enter("setPreviewSize");
+		try {
+			if (previewing) {
+				registry.violation("setPreviewSize called while previewing");
+			}
+			previewWidth = width;
+			previewHeight = height;
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public List<int[]> getSupportedPreviewFpsRanges() {
+		enter("getSupportedPreviewFpsRanges");
+		exit();
+		return FPS_RANGES;
+	}
+
+	@Override
+	public void setPreviewFpsRange(int min, int max) {
+		enter("setPreviewFpsRange");
+		fpsMax = max;
+		exit();
+	}
+
+	boolean isReleased() {
+		return released;
+	}
+
+	boolean isPreviewing() {
+		return previewing;
+	}
+
+	int getDisplayOrientation() {
+		return displayOrientation;
+	}
+
+	int getPreviewWidth() {
+		return previewWidth;
+	}
+
+	int getPreviewHeight() {
+		return previewHeight;
+	}
+
+	int getFpsMax() {
+		return fpsMax;
+	}
+
+	PreviewCallback getPreviewCallback() {
+		return previewCallback;
+	}
+
+	int getAutoFocusCount() {
+		return autoFocusCount;
+	}
+}
@@ -0,0 +1,215 @@
+package com.dm.zbar.android.scanner;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class LumaPreprocessorTest extends TestCase {
+
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+	private static final int PIXELS = WIDTH * HEIGHT;
+
+	private LumaPreprocessor mPreprocessor;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mPreprocessor = new LumaPreprocessor();
+	}
+
+	public void testFullRangeFrameIsLeftAlone() {
+		byte[] frame = new byte[PIXELS];
+		new Random(1).nextBytes(frame);
+		byte[] original = frame.clone();
+
+		assertEquals(0, mPreprocessor.process(frame, WIDTH, HEIGHT));
+		assertTrue(Arrays.equals(original, frame));
+	}
+
+	public void testLowContrastFrameIsStretched() {
+		byte[] frame = stripes(100, 130, 0.5f);
+
+		assertEquals(LumaPreprocessor.PASS_STRETCH, mPreprocessor.process(frame, WIDTH, HEIGHT));
+		assertEquals(30, mPreprocessor.getLastRange());
+		for (int i = 0; i < PIXELS; i++) {
+			int expected = isStripe(i % WIDTH, 0.5f) ? 0 : 255;
+			assertEquals("pixel " + i, expected, frame[i] & 0xff);
+		}
+	}
+
+	public void testStretchIsMonotonicAndClamped() {
+		byte[] frame = new byte[PIXELS];
+		for (int i = 0; i < PIXELS; i++) {
+			frame[i] = (byte) (80 + (i % WIDTH) * 80 / WIDTH);
+		}
+
+		assertEquals(LumaPreprocessor.PASS_STRETCH, mPreprocessor.process(frame, WIDTH, HEIGHT));
+		for (int x = 1; x < WIDTH; x++) {
+			assertTrue("x " + x, (frame[x] & 0xff) >= (frame[x - 1] & 0xff));
+		}
+		assertEquals(0, frame[0] & 0xff);
+		assertEquals(255, frame[WIDTH - 1] & 0xff);
+	}
+
+	public void testOnlyLumaPlaneIsModified() {
+		byte[] frame = new byte[PIXELS * 3 / 2];
+		System.arraycopy(stripes(100, 130, 0.5f), 0, frame, 0, PIXELS);
+		Arrays.fill(frame, PIXELS, frame.length, (byte) 0x80);
+
+		mPreprocessor.process(frame, WIDTH, HEIGHT);
+		for (int i = PIXELS; i < frame.length; i++) {
+			assertEquals(0x80, frame[i] & 0xff);
+		}
+	}
+
+	public void testNoInversionBeforeMisses() {
+		for (int i = 0; i < 4; i++) {
+			byte[] frame = stripes(40, 90, 0.8f);
+			assertEquals(0, mPreprocessor.process(frame, WIDTH, HEIGHT) & LumaPreprocessor.PASS_INVERT);
+		}
+	}
+
+	public void testDarkDominantFrameIsInvertedOnAlternateFramesAfterMisses() {
+		miss(LumaPreprocessor.MISSES_BEFORE_INVERT);
+
+		int inverted = 0;
+		for (int i = 0; i < 4; i++) {
+			// Mostly dark background (40) with a light code (90)
+			byte[] frame = stripes(40, 90, 0.8f);
+			int passes = mPreprocessor.process(frame, WIDTH, HEIGHT);
+			assertEquals(0, passes & LumaPreprocessor.PASS_THRESHOLD);
+
+			if ((passes & LumaPreprocessor.PASS_INVERT) != 0) {
+				inverted++;
+				// Background becomes white, the code black.
+				assertEquals(255, frame[0] & 0xff);
+				assertEquals(0, frame[WIDTH - 1] & 0xff);
+			} else {
+				assertEquals(0, frame[0] & 0xff);
+				assertEquals(255, frame[WIDTH - 1] & 0xff);
+			}
+		}
+		assertEquals(2, inverted);
+	}
+
+	public void testLightDominantFrameIsNeverInverted() {
+		miss(LumaPreprocessor.MISSES_BEFORE_INVERT);
+
+		for (int i = 0; i < 4; i++) {
+			// Mostly light background (200) with a dark code (150)
+			byte[] frame = stripes(200, 150, 0.8f);
+			assertEquals(0, mPreprocessor.process(frame, WIDTH, HEIGHT) & LumaPreprocessor.PASS_INVERT);
+		}
+	}
+
+	public void testResultResetsMisses() {
+		miss(LumaPreprocessor.MISSES_BEFORE_THRESHOLD);
+		mPreprocessor.onScanResult(true);
+
+		for (int i = 0; i < 4; i++) {
+			byte[] frame = stripes(40, 90, 0.8f);
+			assertEquals(LumaPreprocessor.PASS_STRETCH, mPreprocessor.process(frame, WIDTH, HEIGHT));
+		}
+	}
+
+	public void testPassesCanBeDisabled() {
+		mPreprocessor.setInversionEnabled(false);
+		mPreprocessor.setThresholdEnabled(false);
+		miss(LumaPreprocessor.MISSES_BEFORE_THRESHOLD);
+
+		for (int i = 0; i < 4; i++) {
+			byte[] frame = stripes(40, 90, 0.8f);
+			assertEquals(LumaPreprocessor.PASS_STRETCH, mPreprocessor.process(frame, WIDTH, HEIGHT));
+		}
+	}
+
+	public void testThresholdSeparatesBarsUnderUnevenLight() {
+		mPreprocessor.setInversionEnabled(false);
+		miss(LumaPreprocessor.MISSES_BEFORE_THRESHOLD);
+
+		// 4 pixel bars 28 levels below a background that brightens from left
+		// to right.
+		byte[] frame = new byte[PIXELS];
+		for (int i = 0; i < PIXELS; i++) {
+			int x = i % WIDTH;
+			int background = 100 + x * 20 / WIDTH;
+			frame[i] = (byte) (isBar(x) ? background - 28 : background);
+		}
+
+		int passes = mPreprocessor.process(frame, WIDTH, HEIGHT);
+		assertTrue((passes & LumaPreprocessor.PASS_THRESHOLD) != 0);
+
+		int correct = 0;
+		for (int i = 0; i < PIXELS; i++) {
+			int v = frame[i] & 0xff;
+			assertTrue(v == 0 || v == 255);
+			if ((v == 0) == isBar(i % WIDTH)) {
+				correct++;
+			}
+		}
+		assertTrue("correct " + correct, correct > PIXELS * 95 / 100);
+	}
+
+	public void testFlatFrameThresholdsToWhite() {
+		miss(LumaPreprocessor.MISSES_BEFORE_THRESHOLD);
+
+		byte[] frame = new byte[PIXELS];
+		Random random = new Random(2);
+		for (int i = 0; i < PIXELS; i++) {
+			frame[i] = (byte) (120 + random.nextInt(4));
+		}
+
+		mPreprocessor.process(frame, WIDTH, HEIGHT);
+		for (int i = 0; i < PIXELS; i++) {
+			assertEquals(255, frame[i] & 0xff);
+		}
+	}
+
+	public void testOddSizedFrame() {
+		miss(LumaPreprocessor.MISSES_BEFORE_THRESHOLD);
+
+		byte[] frame = new byte[101 * 37];
+		for (int i = 0; i < frame.length; i++) {
+			frame[i] = (byte) (100 + (i % 7) * 5);
+		}
+		assertTrue((mPreprocessor.process(frame, 101, 37) & LumaPreprocessor.PASS_THRESHOLD) != 0);
+	}
+
+	public void testRejectsShortBuffer() {
+		try {
+			mPreprocessor.process(new byte[PIXELS - 1], WIDTH, HEIGHT);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	private void miss(int frames) {
+		for (int i = 0; i < frames; i++) {
+			mPreprocessor.onScanResult(false);
+		}
+	}
+
+	/**
+	 * A frame of vertical stripes: <code>background</code> on the left
+	 * <code>backgroundShare</code> of every 10 pixel period, <code>code</code>
+	 * on the rest.
+	 */
+	private static byte[] stripes(int background, int code, float backgroundShare) {
+		byte[] frame = new byte[PIXELS];
+		for (int i = 0; i < PIXELS; i++) {
+			frame[i] = (byte) (isStripe(i % WIDTH, backgroundShare) ? background : code);
+		}
+		return frame;
+	}
+
+	private static boolean isStripe(int x, float backgroundShare) {
+		return x % 10 < Math.round(10 * backgroundShare);
+	}
+
+	private static boolean isBar(int x) {
+		return (x / 4) % 2 == 0;
+	}
+}
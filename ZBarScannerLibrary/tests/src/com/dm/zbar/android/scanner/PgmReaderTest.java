@@ -0,0 +1,152 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PgmReaderTest extends TestCase {
+
+	private PgmReader mReader;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mReader = new PgmReader();
+	}
+
+	public void testEightBitIsPassedThrough() throws Exception {
+		byte[] luma = new byte[] { 0, 1, 127, (byte) 128, (byte) 254, (byte) 255 };
+
+		byte[] read = read(TestBarcodes.toPgm(luma, 3, 2, 255));
+
+		assertEquals(3, mReader.getWidth());
+		assertEquals(2, mReader.getHeight());
+		assertTrue(Arrays.equals(luma, read));
+	}
+
+	public void testLowMaxValueIsScaled() throws Exception {
+		byte[] read = read(TestBarcodes.toPgm(new byte[] { 0, 5, 10, 15 }, 4, 1, 15));
+
+		assertEquals(0, read[0] & 0xff);
+		assertEquals(85, read[1] & 0xff);
+		assertEquals(170, read[2] & 0xff);
+		assertEquals(255, read[3] & 0xff);
+	}
+
+	public void testSamplesAboveMaxValueAreClamped() throws Exception {
+		assertEquals(255, read(TestBarcodes.toPgm(new byte[] { 100 }, 1, 1, 15))[0] & 0xff);
+
+		byte[] pgm = concat("P5 1 1 1000\n".getBytes("US-ASCII"), new byte[] { (byte) 0xff, (byte) 0xff });
+		assertEquals(255, read(pgm)[0] & 0xff);
+	}
+
+	public void testSixteenBit() throws Exception {
+		byte[] pgm = concat("P5\n3 1\n65535\n".getBytes("US-ASCII"),
+				new byte[] { 0, 0, (byte) 0x80, 0, (byte) 0xff, (byte) 0xff });
+
+		byte[] read = read(pgm);
+
+		assertEquals(0, read[0] & 0xff);
+		assertEquals(127, read[1] & 0xff);
+		assertEquals(255, read[2] & 0xff);
+	}
+
+	public void testSixteenBitFromEightBitHelper() throws Exception {
+		byte[] luma = new byte[] { 0, 64, (byte) 200, (byte) 255 };
+
+		byte[] read = read(TestBarcodes.toPgm16(luma, 2, 2));
+
+		assertTrue(Arrays.equals(luma, read));
+	}
+
+	public void testHeaderComments() throws Exception {
+		byte[] pgm = concat("P5 # scanned\n#another\n2\t# width\n1\r\n255\n".getBytes("US-ASCII"), new byte[] { 7, 9 });
+
+		byte[] read = read(pgm);
+
+		assertEquals(2, mReader.getWidth());
+		assertEquals(1, mReader.getHeight());
+		assertEquals(7, read[0]);
+		assertEquals(9, read[1]);
+	}
+
+	public void testBufferIsReusedForSameSize() throws Exception {
+		byte[] first = read(TestBarcodes.toPgm(new byte[4], 2, 2, 255));
+		byte[] second = read(TestBarcodes.toPgm(new byte[4], 4, 1, 255));
+		assertSame(first, second);
+
+		assertNotSame(second, read(TestBarcodes.toPgm(new byte[6], 3, 2, 255)));
+
+		mReader.releaseBuffers();
+		assertNotSame(second, mReader.obtainBuffer(4));
+	}
+
+	public void testMalformedHeaders() throws Exception {
+		assertInvalid("");
+		assertInvalid("P2 1 1 255\n");
+		assertInvalid("P6 1 1 255\n");
+		assertInvalid("P5");
+		assertInvalid("P5 1");
+		assertInvalid("P5 1 1");
+		assertInvalid("P5 a 1 255\n");
+		assertInvalid("P5 -1 1 255\n");
+		assertInvalid("P5 0 1 255\n");
+		assertInvalid("P5 1 0 255\n");
+		assertInvalid("P5 1 1 0\n");
+		assertInvalid("P5 1 1 65536\n");
+		assertInvalid("P5 99999999999 1 255\n");
+	}
+
+	public void testTooLarge() throws Exception {
+		try {
+			read("P5 65535 65535 255\n".getBytes("US-ASCII"));
+			fail();
+		} catch (IOException e) {
+			assertEquals("PGM image is too large", e.getMessage());
+		}
+	}
+
+	public void testTruncatedData() throws Exception {
+		byte[] pgm = TestBarcodes.toPgm(new byte[100], 10, 10, 255);
+		assertTruncated(Arrays.copyOf(pgm, pgm.length - 1));
+
+		byte[] pgm16 = TestBarcodes.toPgm16(new byte[100], 10, 10);
+		assertTruncated(Arrays.copyOf(pgm16, pgm16.length - 1));
+
+		// Header only
+		assertTruncated("P5 10 10 255\n".getBytes("US-ASCII"));
+	}
+
+	private byte[] read(byte[] pgm) throws IOException {
+		return mReader.read(new ByteArrayInputStream(pgm));
+	}
+
+	private void assertInvalid(String header) throws Exception {
+		try {
+			read(header.getBytes("US-ASCII"));
+			fail(header);
+		} catch (EOFException e) {
+			fail(header + ": " + e);
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private void assertTruncated(byte[] pgm) throws IOException {
+		try {
+			read(pgm);
+			fail();
+		} catch (EOFException e) {
+			// Expected
+		}
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+}
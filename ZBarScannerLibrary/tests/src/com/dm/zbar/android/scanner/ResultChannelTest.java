@@ -0,0 +1,461 @@
+package com.dm.zbar.android.scanner;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+public class ResultChannelTest extends TestCase {
+
+	private static final String LOG_TAG = "ZBarScanner/ResultChannelTest";
+
+	private static final long NO_TIMEOUT = 60000;
+
+	private final List<List<ResultChannel.ScanResult>> mBatches = new ArrayList<List<ResultChannel.ScanResult>>();
+	// Guarded by mBatches
+	private int mResultCount;
+
+	private final ResultChannel.BatchListener mRecorder = new ResultChannel.BatchListener() {
+		@Override
+		public void onResults(List<ResultChannel.ScanResult> results) {
+			synchronized (mBatches) {
+				mBatches.add(results);
+				mResultCount += results.size();
+				mBatches.notifyAll();
+			}
+		}
+	};
+
+	private ManualExecutor mExecutor;
+	private ExecutorService mSerialExecutor;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mBatches.clear();
+		mResultCount = 0;
+		mExecutor = new ManualExecutor();
+		mSerialExecutor = Executors.newSingleThreadExecutor();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mSerialExecutor.shutdownNow();
+		super.tearDown();
+	}
+
+	public void testFullBatchIsDeliveredAtOnce() {
+		ResultChannel channel = new ResultChannel(100, 4, NO_TIMEOUT, ResultChannel.OVERFLOW_DROP_NEWEST, mExecutor,
+				mRecorder);
+
+		offer(channel, 0, 3);
+		assertEquals(0, mExecutor.pending());
+
+		offer(channel, 3, 1);
+		assertEquals(1, mExecutor.runAll());
+		assertEquals(1, mBatches.size());
+		assertSequence(mBatches.get(0), 0, 4);
+		assertEquals(0, channel.size());
+		assertEquals(4, channel.getDeliveredCount());
+	}
+
+	public void testOneBatchPerTask() {
+		ResultChannel channel = new ResultChannel(100, 4, NO_TIMEOUT, ResultChannel.OVERFLOW_DROP_NEWEST, mExecutor,
+				mRecorder);
+
+		offer(channel, 0, 10);
+		assertEquals(1, mExecutor.pending());
+
+		assertTrue(mExecutor.runOne());
+		assertEquals(1, mBatches.size());
+		assertSequence(mBatches.get(0), 0, 4);
+		// A full batch is still waiting, so another task was queued.
+		assertEquals(1, mExecutor.pending());
+
+		assertTrue(mExecutor.runOne());
+		assertEquals(2, mBatches.size());
+		assertSequence(mBatches.get(1), 4, 4);
+		// The rest waits for the timer.
+		assertEquals(0, mExecutor.pending());
+		assertEquals(2, channel.size());
+
+		channel.close();
+		assertEquals(1, mExecutor.runAll());
+		assertSequence(mBatches.get(2), 8, 2);
+	}
+
+	public void testCloseDeliversRemainder() {
+		ResultChannel channel = new ResultChannel(100, 4, NO_TIMEOUT, ResultChannel.OVERFLOW_DROP_NEWEST, mExecutor,
+				mRecorder);
+
+		offer(channel, 0, 3);
+		channel.close();
+		assertEquals(1, mExecutor.runAll());
+		assertSequence(mBatches.get(0), 0, 3);
+
+		assertFalse(channel.offer(result(3)));
+		assertEquals(1, channel.getDroppedCount());
+		assertEquals(0, mExecutor.pending());
+	}
+
+	public void testPartialBatchIsDeliveredAfterDelay() throws Exception {
+		ResultChannel channel = new ResultChannel(100, 100, 50, ResultChannel.OVERFLOW_DROP_NEWEST, mSerialExecutor,
+				mRecorder);
+
+		long start = System.nanoTime();
+		offer(channel, 0, 3);
+		List<ResultChannel.ScanResult> batch = awaitBatch(0);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertSequence(batch, 0, 3);
+		assertTrue("elapsed " + elapsed, elapsed >= 40);
+		assertTrue("elapsed " + elapsed, elapsed < 5000);
+		channel.close();
+	}
+
+	public void testDropNewest() {
+		ResultChannel channel = new ResultChannel(3, 10, NO_TIMEOUT, ResultChannel.OVERFLOW_DROP_NEWEST, mExecutor,
+				mRecorder);
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i < 3, channel.offer(result(i)));
+		}
+		assertEquals(3, channel.size());
+		assertEquals(2, channel.getDroppedCount());
+
+		channel.close();
+		mExecutor.runAll();
+		assertSequence(mBatches.get(0), 0, 3);
+	}
+
+	public void testDropOldest() {
+		ResultChannel channel = new ResultChannel(3, 10, NO_TIMEOUT, ResultChannel.OVERFLOW_DROP_OLDEST, mExecutor,
+				mRecorder);
+
+		for (int i = 0; i < 5; i++) {
+			assertTrue(channel.offer(result(i)));
+		}
+		assertEquals(3, channel.size());
+		assertEquals(2, channel.getDroppedCount());
+
+		channel.close();
+		mExecutor.runAll();
+		assertSequence(mBatches.get(0), 2, 3);
+	}
+
+	public void testSingleProducerOrder() throws Exception {
+		final int count = 20000;
+		ResultChannel channel = new ResultChannel(count, 16, 5, ResultChannel.OVERFLOW_DROP_NEWEST, mSerialExecutor,
+				mRecorder);
+
+		offer(channel, 0, count);
+		channel.close();
+
+		List<ResultChannel.ScanResult> all = awaitResults(count);
+		assertSequence(all, 0, count);
+		for (List<ResultChannel.ScanResult> batch : mBatches) {
+			assertTrue(batch.size() <= 16);
+		}
+	}
+
+	public void testMultipleProducersKeepTheirOrder() throws Exception {
+		final int producers = 4;
+		final int perProducer = 10000;
+		final ResultChannel channel = new ResultChannel(producers * perProducer, 32, 5,
+				ResultChannel.OVERFLOW_DROP_NEWEST, mSerialExecutor, mRecorder);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < perProducer; i++) {
+						channel.offer(new ResultChannel.ScanResult(String.valueOf(i), producer, 0));
+					}
+				}
+			};
+			threads[p].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		channel.close();
+
+		List<ResultChannel.ScanResult> all = awaitResults(producers * perProducer);
+		int[] next = new int[producers];
+		for (ResultChannel.ScanResult result : all) {
+			assertEquals(next[result.symType]++, Integer.parseInt(result.symData));
+		}
+		for (int p = 0; p < producers; p++) {
+			assertEquals(perProducer, next[p]);
+		}
+		assertEquals(0, channel.getDroppedCount());
+	}
+
+	public void testNoConcurrentDeliveryOnThreadPool() throws Exception {
+		final int producers = 2;
+		final int perProducer = 5000;
+		final AtomicInteger inListener = new AtomicInteger();
+		final AtomicBoolean overlapped = new AtomicBoolean();
+		ResultChannel.BatchListener listener = new ResultChannel.BatchListener() {
+			@Override
+			public void onResults(List<ResultChannel.ScanResult> results) {
+				if (inListener.incrementAndGet() > 1) {
+					overlapped.set(true);
+				}
+				// Give the pool's other threads time to start a batch too.
+				Thread.yield();
+				mRecorder.onResults(results);
+				inListener.decrementAndGet();
+			}
+		};
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			final ResultChannel channel = new ResultChannel(producers * perProducer, 8, 1,
+					ResultChannel.OVERFLOW_DROP_NEWEST, pool, listener);
+			Thread[] threads = new Thread[producers];
+			for (int p = 0; p < producers; p++) {
+				final int producer = p;
+				threads[p] = new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i < perProducer; i++) {
+							channel.offer(new ResultChannel.ScanResult(String.valueOf(i), producer, 0));
+						}
+					}
+				};
+				threads[p].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			channel.close();
+
+			List<ResultChannel.ScanResult> all = awaitResults(producers * perProducer);
+			assertFalse(overlapped.get());
+			int[] next = new int[producers];
+			for (ResultChannel.ScanResult result : all) {
+				assertEquals(next[result.symType]++, Integer.parseInt(result.symData));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Every result offered while the channel is being closed is either
+	 * dropped or delivered, even though the timer will never fire. Delivery
+	 * runs on the calling thread, so close() has delivered everything it saw
+	 * by the time it returns.
+	 */
+	public void testOfferRacingClose() throws Exception {
+		Executor direct = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+
+		for (int round = 0; round < 200; round++) {
+			final AtomicInteger delivered = new AtomicInteger();
+			final ResultChannel channel = new ResultChannel(1000000, 1000, NO_TIMEOUT,
+					ResultChannel.OVERFLOW_DROP_NEWEST, direct, new ResultChannel.BatchListener() {
+						@Override
+						public void onResults(List<ResultChannel.ScanResult> results) {
+							delivered.addAndGet(results.size());
+						}
+					});
+
+			final AtomicInteger offered = new AtomicInteger();
+			final CountDownLatch started = new CountDownLatch(2);
+			Thread[] threads = new Thread[2];
+			for (int p = 0; p < threads.length; p++) {
+				threads[p] = new Thread() {
+					@Override
+					public void run() {
+						started.countDown();
+						for (int i = 0; i < 2000; i++) {
+							channel.offer(result(i));
+							offered.incrementAndGet();
+						}
+					}
+				};
+				threads[p].start();
+			}
+			started.await();
+			channel.close();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (delivered.get() + channel.getDroppedCount() < offered.get()) {
+				assertTrue("round " + round + ": " + delivered.get() + " delivered, " + channel.getDroppedCount()
+						+ " dropped of " + offered.get(), System.currentTimeMillis() < deadline);
+				Thread.sleep(1);
+			}
+			assertEquals(offered.get(), delivered.get() + channel.getDroppedCount());
+			assertEquals(delivered.get(), channel.getDeliveredCount());
+			assertEquals(0, channel.size());
+			awaitNoTimerThread(channel);
+		}
+	}
+
+	public void testTimerThreadIsStartedLazily() throws Exception {
+		ResultChannel channel = new ResultChannel(100, 10, 10, ResultChannel.OVERFLOW_DROP_NEWEST, mSerialExecutor,
+				mRecorder);
+		assertEquals(0, channel.getTimerThreadCount());
+
+		offer(channel, 0, 1);
+		assertEquals(1, channel.getTimerThreadCount());
+		assertSequence(awaitBatch(0), 0, 1);
+
+		// Idle again, so the thread goes away, and comes back when needed.
+		awaitNoTimerThread(channel);
+		offer(channel, 1, 1);
+		assertSequence(awaitBatch(1), 1, 1);
+		awaitNoTimerThread(channel);
+
+		channel.close();
+		assertFalse(channel.offer(result(2)));
+		assertEquals(0, channel.getTimerThreadCount());
+	}
+
+	public void testNoTimerWithoutDelay() throws Exception {
+		ResultChannel channel = new ResultChannel(100, 10, 0, ResultChannel.OVERFLOW_DROP_NEWEST, mExecutor,
+				mRecorder);
+		offer(channel, 0, 3);
+		mExecutor.runAll();
+		assertEquals(3, channel.getDeliveredCount());
+		assertEquals(0, channel.getTimerThreadCount());
+	}
+
+	public void testThroughput() throws Exception {
+		final int count = 200000;
+		ResultChannel channel = new ResultChannel(count, 64, 10, ResultChannel.OVERFLOW_DROP_NEWEST, mSerialExecutor,
+				mRecorder);
+
+		ResultChannel.ScanResult result = result(0);
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			channel.offer(result);
+		}
+		long offered = System.nanoTime() - start;
+		channel.close();
+		awaitResults(count);
+		long delivered = System.nanoTime() - start;
+
+		Log.i(LOG_TAG, "offer: " + offered / count + " ns/result, delivery: " + count * 1000000000L / delivered
+				+ " results/s");
+		assertEquals(0, channel.getDroppedCount());
+	}
+
+	private static void offer(ResultChannel channel, int first, int count) {
+		for (int i = first; i < first + count; i++) {
+			assertTrue(channel.offer(result(i)));
+		}
+	}
+
+	private static ResultChannel.ScanResult result(int sequence) {
+		return new ResultChannel.ScanResult(String.valueOf(sequence), 0, 0);
+	}
+
+	private static void assertSequence(List<ResultChannel.ScanResult> results, int first, int count) {
+		assertEquals(count, results.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(String.valueOf(first + i), results.get(i).symData);
+		}
+	}
+
+	private static void awaitNoTimerThread(ResultChannel channel) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (channel.getTimerThreadCount() > 0) {
+			assertTrue("Timer thread still running", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private List<ResultChannel.ScanResult> awaitBatch(int index) throws InterruptedException {
+		synchronized (mBatches) {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (mBatches.size() <= index) {
+				long left = deadline - System.currentTimeMillis();
+				assertTrue("Timed out waiting for batch " + index, left > 0);
+				mBatches.wait(left);
+			}
+			return mBatches.get(index);
+		}
+	}
+
+	private List<ResultChannel.ScanResult> awaitResults(int count) throws InterruptedException {
+		synchronized (mBatches) {
+			long deadline = System.currentTimeMillis() + 30000;
+			while (mResultCount < count) {
+				long left = deadline - System.currentTimeMillis();
+				assertTrue("Timed out with " + mResultCount + " of " + count + " results", left > 0);
+				mBatches.wait(left);
+			}
+			assertEquals(count, mResultCount);
+
+			List<ResultChannel.ScanResult> all = new ArrayList<ResultChannel.ScanResult>(count);
+			for (List<ResultChannel.ScanResult> batch : mBatches) {
+				all.addAll(batch);
+			}
+			return all;
+		}
+	}
+
+	/**
+	 * Runs tasks only when asked to.
+	 */
+	private static class ManualExecutor implements Executor {
+		private final LinkedList<Runnable> mTasks = new LinkedList<Runnable>();
+
+		@Override
+		public synchronized void execute(Runnable command) {
+			mTasks.add(command);
+		}
+
+		synchronized int pending() {
+			return mTasks.size();
+		}
+
+		boolean runOne() {
+			Runnable task;
+			synchronized (this) {
+				task = mTasks.poll();
+			}
+			if (task == null) {
+				return false;
+			}
+			task.run();
+			return true;
+		}
+
+		int runAll() {
+			int run = 0;
+			while (runOne()) {
+				run++;
+			}
+			return run;
+		}
+	}
+}
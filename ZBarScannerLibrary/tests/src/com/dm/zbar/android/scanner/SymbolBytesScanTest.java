@@ -0,0 +1,138 @@
+package com.dm.zbar.android.scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.zbar.Image;
+import net.sourceforge.zbar.ImageScanner;
+import net.sourceforge.zbar.Symbol;
+import net.sourceforge.zbar.SymbolSet;
+
+/**
+ * Checks {@link SymbolBytes} against what ZBar itself returns for rendered
+ * symbols, so it needs the native library and only runs on a device or
+ * emulator.
+ */
+public class SymbolBytesScanTest extends TestCase {
+
+	private static final String[] EAN = { "590123412345", "400638133393", "000000000000", "978030640615" };
+
+	// Covers every printable character of code set B
+	private static final String[] CODE128 = { "ZBar", "0123456789", " !\"#$%&'()*+,-./:;<=>?@",
+			"[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~", "ABCDEFGHIJKLMNOPQRSTUVWXYZ" };
+
+	private final List<TestBarcodes.Frame> mFrames = new ArrayList<TestBarcodes.Frame>();
+
+	private ImageScanner mScanner;
+	private ScannerHelper mHelper;
+	private String mData;
+	private int mType;
+	private SymbolBytes mSymbol;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		for (String digits : EAN) {
+			mFrames.add(TestBarcodes.ean13(digits, 3, 60));
+		}
+		for (String text : CODE128) {
+			mFrames.add(TestBarcodes.code128(text, 3, 60));
+		}
+
+		mScanner = ImageScannerFactory.create(null);
+		mHelper = new ScannerHelper(null, new ScannerHelper.ScannerResultListener() {
+			@Override
+			public void onResult(String symData, int symType) {
+				assertNull(mData);
+				mData = symData;
+				mType = symType;
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mScanner.destroy();
+		super.tearDown();
+	}
+
+	public void testGetTextMatchesGetData() {
+		int checked = 0;
+		for (TestBarcodes.Frame frame : mFrames) {
+			Image image = new Image(frame.width, frame.height, "Y800");
+			image.setData(frame.data);
+			try {
+				assertTrue(mScanner.scanImage(image) > 0);
+				SymbolSet syms = mScanner.getResults();
+				for (Symbol sym : syms) {
+					SymbolBytes symbol = new SymbolBytes(sym.getDataBytes(), sym.getType());
+					assertEquals(sym.getData(), symbol.getText());
+					assertEquals(sym.getType(), symbol.getType());
+					checked++;
+				}
+			} finally {
+				image.destroy();
+			}
+		}
+		assertEquals(mFrames.size(), checked);
+	}
+
+	public void testRawAndStringPathsAgree() {
+		for (TestBarcodes.Frame frame : mFrames) {
+			mHelper.setRawResultListener(null);
+			mData = null;
+			assertTrue(mHelper.scanFrame(frame.data.clone(), frame.width, frame.height));
+			assertNotNull(mData);
+
+			mHelper.setRawResultListener(new ScannerHelper.RawResultListener() {
+				@Override
+				public void onRawResult(SymbolBytes symbol) {
+					assertNull(mSymbol);
+					mSymbol = symbol;
+				}
+			});
+			mSymbol = null;
+			String data = mData;
+			assertTrue(mHelper.scanFrame(frame.data.clone(), frame.width, frame.height));
+			// Only the raw listener is called while it is set.
+			assertSame(data, mData);
+
+			assertNotNull(mSymbol);
+			assertEquals(mData, mSymbol.getText());
+			assertEquals(mType, mSymbol.getType());
+		}
+	}
+
+	public void testNothingFound() {
+		TestBarcodes.Frame blank = TestBarcodes.blank(320, 240);
+
+		assertFalse(mHelper.scanFrame(blank.data, blank.width, blank.height));
+		assertNull(mData);
+
+		mHelper.setRawResultListener(new ScannerHelper.RawResultListener() {
+			@Override
+			public void onRawResult(SymbolBytes symbol) {
+				fail();
+			}
+		});
+		assertFalse(mHelper.scanFrame(blank.data, blank.width, blank.height));
+	}
+
+	public void testRawListenerOnly() {
+		final List<SymbolBytes> results = new ArrayList<SymbolBytes>();
+		ScannerHelper helper = new ScannerHelper(new int[] { Symbol.CODE128 }, null);
+		helper.setRawResultListener(new ScannerHelper.RawResultListener() {
+			@Override
+			public void onRawResult(SymbolBytes symbol) {
+				results.add(symbol);
+			}
+		});
+
+		TestBarcodes.Frame frame = TestBarcodes.code128("raw only", 3, 60);
+		assertTrue(helper.scanFrame(frame.data, frame.width, frame.height));
+		assertEquals(1, results.size());
+		assertEquals("raw only", results.get(0).getText());
+		assertEquals(Symbol.CODE128, results.get(0).getType());
+	}
+}
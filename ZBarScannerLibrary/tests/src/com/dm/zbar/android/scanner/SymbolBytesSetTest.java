@@ -0,0 +1,76 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+import net.sourceforge.zbar.Symbol;
+
+public class SymbolBytesSetTest extends TestCase {
+
+	public void testAddAndContains() throws Exception {
+		SymbolBytesSet set = new SymbolBytesSet();
+		SymbolBytes symbol = symbol("4006381333931");
+
+		assertFalse(set.contains(symbol));
+		assertTrue(set.add(symbol));
+		assertTrue(set.contains(symbol));
+		assertEquals(1, set.size());
+
+		// Same payload, other instance and type
+		SymbolBytes duplicate = new SymbolBytes(utf8("4006381333931"), Symbol.CODE128);
+		assertTrue(set.contains(duplicate));
+		assertFalse(set.add(duplicate));
+		assertEquals(1, set.size());
+	}
+
+	public void testContainsRange() throws Exception {
+		SymbolBytesSet set = new SymbolBytesSet();
+		set.add(symbol("abc"));
+
+		byte[] buffer = utf8("xabcx");
+		assertTrue(set.contains(buffer, 1, 3));
+		assertFalse(set.contains(buffer, 0, 3));
+		assertFalse(set.contains(buffer, 1, 2));
+	}
+
+	public void testGrowKeepsEntries() throws Exception {
+		SymbolBytesSet set = new SymbolBytesSet(4);
+		for (int i = 0; i < 5000; i++) {
+			assertTrue(set.add(symbol("code-" + i)));
+		}
+		assertEquals(5000, set.size());
+		for (int i = 0; i < 5000; i++) {
+			assertTrue(set.contains(symbol("code-" + i)));
+		}
+		assertFalse(set.contains(symbol("code-5000")));
+	}
+
+	public void testPrefixesAreDistinct() throws Exception {
+		SymbolBytesSet set = new SymbolBytesSet();
+		assertTrue(set.add(symbol("1")));
+		assertTrue(set.add(symbol("12")));
+		assertTrue(set.add(symbol("123")));
+		assertTrue(set.add(new SymbolBytes(new byte[0], Symbol.QRCODE)));
+		assertEquals(4, set.size());
+		assertFalse(set.contains(symbol("1234")));
+	}
+
+	public void testClear() throws Exception {
+		SymbolBytesSet set = new SymbolBytesSet();
+		for (int i = 0; i < 100; i++) {
+			set.add(symbol(String.valueOf(i)));
+		}
+		set.clear();
+		assertEquals(0, set.size());
+		assertFalse(set.contains(symbol("42")));
+		assertTrue(set.add(symbol("42")));
+	}
+
+	private static SymbolBytes symbol(String text) throws UnsupportedEncodingException {
+		return new SymbolBytes(utf8(text), Symbol.QRCODE);
+	}
+
+	private static byte[] utf8(String text) throws UnsupportedEncodingException {
+		return text.getBytes("UTF-8");
+	}
+}
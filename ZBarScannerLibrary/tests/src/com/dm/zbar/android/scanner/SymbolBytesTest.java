@@ -0,0 +1,86 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+import net.sourceforge.zbar.Symbol;
+
+public class SymbolBytesTest extends TestCase {
+
+	public void testAsciiText() throws Exception {
+		SymbolBytes symbol = new SymbolBytes(utf8("4006381333931"), Symbol.EAN13);
+		assertEquals("4006381333931", symbol.getText());
+		assertEquals(Symbol.EAN13, symbol.getType());
+		assertEquals(13, symbol.length());
+	}
+
+	public void testTextIsCached() throws Exception {
+		SymbolBytes symbol = new SymbolBytes(utf8("abc"), Symbol.QRCODE);
+		assertSame(symbol.getText(), symbol.getText());
+	}
+
+	public void testTextEndsAtNul() {
+		SymbolBytes symbol = new SymbolBytes(new byte[] { 'a', 'b', 0, 'c' }, Symbol.QRCODE);
+		assertEquals("ab", symbol.getText());
+		assertEquals(4, symbol.length());
+
+		assertEquals("", new SymbolBytes(new byte[] { 0, 'a' }, Symbol.QRCODE).getText());
+	}
+
+	public void testMultiByteText() throws Exception {
+		// 2 and 3 byte sequences, decoded the same way as by NewStringUTF
+		String text = "Gr\u00fc\u00dfe \u20ac \u65e5\u672c";
+		assertEquals(text, new SymbolBytes(utf8(text), Symbol.QRCODE).getText());
+	}
+
+	public void testSupplementaryCharacterIsSurrogatePair() throws Exception {
+		String text = "\uD83D\uDE00";
+		byte[] data = utf8(text);
+		assertEquals(4, data.length);
+		assertEquals(text, new SymbolBytes(data, Symbol.QRCODE).getText());
+	}
+
+	public void testInvalidUtf8IsReplaced() {
+		// "cafe" with an ISO-8859-1 e acute
+		SymbolBytes symbol = new SymbolBytes(new byte[] { 'c', 'a', 'f', (byte) 0xe9 }, Symbol.QRCODE);
+		assertEquals("caf\uFFFD", symbol.getText());
+	}
+
+	public void testOverlongNulIsNotDecoded() {
+		SymbolBytes symbol = new SymbolBytes(new byte[] { 'a', (byte) 0xc0, (byte) 0x80 }, Symbol.QRCODE);
+		String text = symbol.getText();
+		assertEquals('a', text.charAt(0));
+		assertEquals(-1, text.indexOf('\u0000'));
+	}
+
+	public void testEqualityIgnoresType() throws Exception {
+		SymbolBytes a = new SymbolBytes(utf8("12345"), Symbol.EAN8);
+		SymbolBytes b = new SymbolBytes(utf8("12345"), Symbol.CODE128);
+		SymbolBytes c = new SymbolBytes(utf8("12346"), Symbol.EAN8);
+
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(c));
+		assertFalse(a.equals("12345"));
+	}
+
+	public void testHashOfRangeMatchesHashCode() throws Exception {
+		byte[] buffer = utf8("xx12345yy");
+		SymbolBytes symbol = new SymbolBytes(utf8("12345"), Symbol.EAN8);
+
+		assertEquals(symbol.hashCode(), SymbolBytes.hash(buffer, 2, 5));
+		assertTrue(symbol.contentEquals(buffer, 2, 5));
+		assertFalse(symbol.contentEquals(buffer, 1, 5));
+		assertFalse(symbol.contentEquals(buffer, 2, 4));
+	}
+
+	public void testEmptyPayload() {
+		SymbolBytes symbol = new SymbolBytes(new byte[0], Symbol.QRCODE);
+		assertEquals("", symbol.getText());
+		assertEquals(SymbolBytes.hash(new byte[0], 0, 0), symbol.hashCode());
+	}
+
+	private static byte[] utf8(String text) throws UnsupportedEncodingException {
+		return text.getBytes("UTF-8");
+	}
+}
@@ -0,0 +1,215 @@
+package com.dm.zbar.android.scanner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Renders EAN-13 and Code 128 symbols into Y800 frames, and wraps frames as
+ * PGM files, so that tests can feed ZBar images with a known content.
+ */
+final class TestBarcodes {
+
+	static final byte BLACK = 0;
+	static final byte WHITE = (byte) 255;
+
+	// EAN-13 left hand odd parity (L) digits; R digits are their complement
+	// and even parity (G) digits the reversed R digits.
+	static final String[] EAN_L = { "0001101", "0011001", "0010011", "0111101", "0100011", "0110001", "0101111",
+			"0111011", "0110111", "0001011" };
+
+	// Parity of the six left hand digits, selected by the first digit
+	static final String[] EAN_PARITY = { "LLLLLL", "LLGLGG", "LLGGLG", "LLGGGL", "LGLLGG", "LGGLLG", "LGGGLL",
+			"LGLGLG", "LGLGGL", "LGGLGL" };
+
+	// Bar and space widths of the Code 128 symbols 0-106, 106 being STOP
+	// without its final bar.
+	static final String[] CODE128 = { "212222", "222122", "222221", "121223", "121322", "131222", "122213",
+			"122312", "132212", "221213", "221312", "231212", "112232", "122132", "122231", "113222", "123122",
+			"123221", "223211", "221132", "221231", "213212", "223112", "312131", "311222", "321122", "321221",
+			"312212", "322112", "322211", "212123", "212321", "232121", "111323", "131123", "131321", "112313",
+			"132113", "132311", "211313", "231113", "231311", "112133", "112331", "132131", "113123", "113321",
+			"133121", "313121", "211331", "231131", "213113", "213311", "213131", "311123", "311321", "331121",
+			"312113", "312311", "332111", "314111", "221411", "431111", "111224", "111422", "121124", "121421",
+			"141122", "141221", "112214", "112412", "122114", "122411", "142112", "142211", "241211", "221114",
+			"413111", "241112", "134111", "111242", "121142", "121241", "114212", "124112", "124211", "411212",
+			"421112", "421211", "212141", "214121", "412121", "111143", "111341", "131141", "114113", "114311",
+			"411113", "411311", "113141", "114131", "311141", "411131", "211412", "211214", "211232", "233111" };
+
+	static final int CODE128_START_B = 104;
+	static final int CODE128_STOP = 106;
+
+	private static final int QUIET_MODULES = 12;
+	private static final int MARGIN_ROWS = 8;
+
+	static class Frame {
+		final byte[] data;
+		final int width;
+		final int height;
+
+		Frame(byte[] data, int width, int height) {
+			this.data = data;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	private TestBarcodes() {
+	}
+
+	/**
+	 * @param digits
+	 *            12 digits; the check digit is appended.
+	 */
+	static Frame ean13(String digits, int moduleWidth, int barHeight) {
+		String full = digits + ean13CheckDigit(digits);
+		String parity = EAN_PARITY[full.charAt(0) - '0'];
+
+		StringBuilder modules = new StringBuilder("101");
+		for (int i = 1; i <= 6; i++) {
+			String l = EAN_L[full.charAt(i) - '0'];
+			modules.append(parity.charAt(i - 1) == 'L' ? l : reverse(complement(l)));
+		}
+		modules.append("01010");
+		for (int i = 7; i <= 12; i++) {
+			modules.append(complement(EAN_L[full.charAt(i) - '0']));
+		}
+		modules.append("101");
+
+		return render(modules.toString(), moduleWidth, barHeight);
+	}
+
+	static int ean13CheckDigit(String digits) {
+		if (digits.length() != 12) {
+			throw new IllegalArgumentException(digits);
+		}
+		int sum = 0;
+		for (int i = 0; i < 12; i++) {
+			sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+		}
+		return (10 - sum % 10) % 10;
+	}
+
+	/**
+	 * @param text
+	 *            Printable ASCII, encoded with code set B.
+	 */
+	static Frame code128(String text, int moduleWidth, int barHeight) {
+		int[] values = new int[text.length()];
+		for (int i = 0; i < values.length; i++) {
+			char c = text.charAt(i);
+			if (c < 32 || c > 126) {
+				throw new IllegalArgumentException("Not in code set B: " + (int) c);
+			}
+			values[i] = c - 32;
+		}
+
+		StringBuilder modules = new StringBuilder();
+		appendWidths(modules, CODE128[CODE128_START_B]);
+		int checksum = CODE128_START_B;
+		for (int i = 0; i < values.length; i++) {
+			appendWidths(modules, CODE128[values[i]]);
+			checksum += (i + 1) * values[i];
+		}
+		appendWidths(modules, CODE128[checksum % 103]);
+		appendWidths(modules, CODE128[CODE128_STOP]);
+		// Final bar of STOP
+		modules.append("11");
+
+		return render(modules.toString(), moduleWidth, barHeight);
+	}
+
+	static Frame blank(int width, int height) {
+		byte[] data = new byte[width * height];
+		Arrays.fill(data, WHITE);
+		return new Frame(data, width, height);
+	}
+
+	/**
+	 * @return A binary PGM with the given maximum value holding the bytes of
+	 *         <code>luma</code> unchanged.
+	 */
+	static byte[] toPgm(byte[] luma, int width, int height, int maxVal) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] header = ascii("P5\n" + width + " " + height + "\n" + maxVal + "\n");
+		out.write(header, 0, header.length);
+		out.write(luma, 0, width * height);
+		return out.toByteArray();
+	}
+
+	static byte[] toPgm(Frame frame) {
+		return toPgm(frame.data, frame.width, frame.height, 255);
+	}
+
+	/**
+	 * @return A 16 bit binary PGM that scales back to <code>luma</code>.
+	 */
+	static byte[] toPgm16(byte[] luma, int width, int height) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] header = ascii("P5\n" + width + " " + height + "\n65535\n");
+		out.write(header, 0, header.length);
+		for (int i = 0; i < width * height; i++) {
+			int sample = (luma[i] & 0xff) * 257;
+			out.write(sample >> 8);
+			out.write(sample & 0xff);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return <code>luma</code> reduced to the range 0-<code>maxVal</code>.
+	 */
+	static byte[] reduce(byte[] luma, int maxVal) {
+		byte[] reduced = new byte[luma.length];
+		for (int i = 0; i < luma.length; i++) {
+			reduced[i] = (byte) ((luma[i] & 0xff) * maxVal / 255);
+		}
+		return reduced;
+	}
+
+	private static Frame render(String modules, int moduleWidth, int barHeight) {
+		int width = (modules.length() + 2 * QUIET_MODULES) * moduleWidth;
+		int height = barHeight + 2 * MARGIN_ROWS;
+
+		byte[] row = new byte[width];
+		Arrays.fill(row, WHITE);
+		for (int m = 0; m < modules.length(); m++) {
+			if (modules.charAt(m) == '1') {
+				int x = (QUIET_MODULES + m) * moduleWidth;
+				Arrays.fill(row, x, x + moduleWidth, BLACK);
+			}
+		}
+
+		byte[] data = new byte[width * height];
+		Arrays.fill(data, WHITE);
+		for (int y = MARGIN_ROWS; y < MARGIN_ROWS + barHeight; y++) {
+			System.arraycopy(row, 0, data, y * width, width);
+		}
+		return new Frame(data, width, height);
+	}
+
+	private static void appendWidths(StringBuilder modules, String widths) {
+		for (int i = 0; i < widths.length(); i++) {
+			char module = i % 2 == 0 ? '1' : '0';
+			for (int w = widths.charAt(i) - '0'; w > 0; w--) {
+				modules.append(module);
+			}
+		}
+	}
+
+	private static String complement(String modules) {
+		return modules.replace('0', 'x').replace('1', '0').replace('x', '1');
+	}
+
+	private static String reverse(String modules) {
+		return new StringBuilder(modules).reverse().toString();
+	}
+
+	private static byte[] ascii(String s) {
+		try {
+			return s.getBytes("US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
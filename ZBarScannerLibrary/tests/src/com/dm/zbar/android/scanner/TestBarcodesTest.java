@@ -0,0 +1,84 @@
+package com.dm.zbar.android.scanner;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the symbol tables the scanner tests render from, so that a failure
+ * there points at the scanner and not at a typo.
+ */
+public class TestBarcodesTest extends TestCase {
+
+	public void testCode128Table() {
+		assertEquals(107, TestBarcodes.CODE128.length);
+
+		Set<String> seen = new HashSet<String>();
+		for (int i = 0; i < TestBarcodes.CODE128.length; i++) {
+			String widths = TestBarcodes.CODE128[i];
+			assertEquals(String.valueOf(i), 6, widths.length());
+			int modules = 0;
+			int bars = 0;
+			for (int w = 0; w < widths.length(); w++) {
+				int width = widths.charAt(w) - '0';
+				assertTrue(String.valueOf(i), width >= 1 && width <= 4);
+				modules += width;
+				if (w % 2 == 0) {
+					bars += width;
+				}
+			}
+			assertEquals(String.valueOf(i), 11, modules);
+			assertEquals(String.valueOf(i), 0, bars % 2);
+			assertTrue(String.valueOf(i), seen.add(widths));
+		}
+	}
+
+	public void testEanTables() {
+		Set<String> seen = new HashSet<String>();
+		for (String l : TestBarcodes.EAN_L) {
+			assertEquals(7, l.length());
+			assertTrue(l.startsWith("0"));
+			assertTrue(l.endsWith("1"));
+			assertTrue(seen.add(l));
+			// L digits have odd parity
+			assertEquals(1, l.replace("0", "").length() % 2);
+		}
+
+		// Apart from 0, which is all L, every first digit has three G digits.
+		Set<String> parities = new HashSet<String>();
+		for (int i = 0; i < TestBarcodes.EAN_PARITY.length; i++) {
+			String parity = TestBarcodes.EAN_PARITY[i];
+			assertTrue(parity.startsWith("L"));
+			assertEquals(i == 0 ? 0 : 3, parity.replace("L", "").length());
+			assertTrue(parities.add(parity));
+		}
+	}
+
+	public void testEan13CheckDigit() {
+		assertEquals(7, TestBarcodes.ean13CheckDigit("590123412345"));
+		assertEquals(1, TestBarcodes.ean13CheckDigit("400638133393"));
+		assertEquals(0, TestBarcodes.ean13CheckDigit("000000000000"));
+	}
+
+	public void testEan13Layout() {
+		TestBarcodes.Frame frame = TestBarcodes.ean13("590123412345", 2, 40);
+
+		// 95 modules plus the quiet zones
+		assertEquals((95 + 24) * 2, frame.width);
+		assertEquals(40 + 16, frame.height);
+		assertEquals(frame.width * frame.height, frame.data.length);
+	}
+
+	public void testCode128Layout() {
+		TestBarcodes.Frame frame = TestBarcodes.code128("AB", 1, 10);
+
+		// START, 2 symbols and the checksum of 11 modules, STOP of 13
+		assertEquals(4 * 11 + 13 + 24, frame.width);
+	}
+
+	public void testPgmHeaders() throws Exception {
+		assertEquals("P5\n3 2\n15\n", new String(TestBarcodes.toPgm(new byte[6], 3, 2, 15), 0, 10, "US-ASCII"));
+		assertEquals(13 + 2 * 6, TestBarcodes.toPgm16(new byte[6], 3, 2).length);
+	}
+}
@@ -0,0 +1,60 @@
+package com.dm.zbar.android.scanner.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dm.zbar.android.scanner.BatchScanner;
+
+/**
+ * Scans every PGM file in a directory with {@link BatchScanner} and prints the
+ * throughput. Unlike the JMH benchmarks this calls into ZBar, so it needs a
+ * ZBar JNI build for the desktop on <code>java.library.path</code>:
+ *
+ * <pre>
+ * java -Djava.library.path=&lt;zbarjni dir&gt; \
+ *     -cp benchmarks/target/benchmarks.jar:ZBarScannerLibrary/libs/zbar.jar \
+ *     com.dm.zbar.android.scanner.benchmarks.BatchScanThroughput &lt;directory&gt; [threads]
+ * </pre>
+ */
+public class BatchScanThroughput {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: BatchScanThroughput <directory> [threads]");
+			System.exit(2);
+		}
+
+		File dir = new File(args[0]);
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		final AtomicLong found = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		BatchScanner scanner = new BatchScanner(null, threads, threads * 4, new BatchScanner.BatchResultListener() {
+			@Override
+			public void onResult(Object tag, String symData, int symType) {
+				if (symData != null) {
+					found.incrementAndGet();
+				}
+			}
+
+			@Override
+			public void onError(Object tag, Throwable error) {
+				failed.incrementAndGet();
+				System.err.println(tag + ": " + error);
+			}
+		});
+
+		long start = System.nanoTime();
+		int submitted = scanner.submitDirectory(dir);
+		scanner.shutdown();
+		scanner.awaitTermination(1, TimeUnit.DAYS);
+		long elapsed = System.nanoTime() - start;
+
+		long scanned = scanner.getScannedImageCount();
+		System.out.println(String.format("%d images, %d with a symbol, %d failed, %d threads", submitted,
+				found.get(), failed.get(), threads));
+		System.out.println(String.format("%.1f images/s, %d ns per scan", submitted * 1e9 / Math.max(elapsed, 1),
+				scanned > 0 ? scanner.getTotalScanTime(TimeUnit.NANOSECONDS) / scanned : 0));
+	}
+}
@@ -0,0 +1,107 @@
+package com.dm.zbar.android.scanner.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dm.zbar.android.scanner.LumaPreprocessor;
+
+/**
+ * Cost of {@link LumaPreprocessor#process} per pixel of a 640x480 frame.
+ * <p>
+ * The passes work in place, so every invocation first copies the original
+ * frame back; {@link #copyOnly()} measures that copy on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(LumaPreprocessorBenchmark.PIXELS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LumaPreprocessorBenchmark {
+
+	static final int WIDTH = 640;
+	static final int HEIGHT = 480;
+	static final int PIXELS = WIDTH * HEIGHT;
+
+	// Faded label: light background, dark bars, 50 levels apart
+	private byte[] mFaded;
+	// Light code on a dark background, 50 levels apart
+	private byte[] mDark;
+	// Very low contrast bars under uneven light
+	private byte[] mLowContrast;
+
+	private byte[] mFrame;
+
+	private LumaPreprocessor mStretch;
+	private LumaPreprocessor mStretchInvert;
+	private LumaPreprocessor mStretchThreshold;
+
+	@Setup
+	public void setUp() {
+		mFaded = new byte[PIXELS];
+		mDark = new byte[PIXELS];
+		mLowContrast = new byte[PIXELS];
+		for (int i = 0; i < PIXELS; i++) {
+			int x = i % WIDTH;
+			boolean bar = (x / 4) % 5 == 0;
+			mFaded[i] = (byte) (bar ? 150 : 200);
+			mDark[i] = (byte) (bar ? 90 : 40);
+			int background = 100 + x * 20 / WIDTH;
+			mLowContrast[i] = (byte) ((x / 4) % 2 == 0 ? background - 28 : background);
+		}
+		mFrame = new byte[PIXELS];
+
+		mStretch = new LumaPreprocessor();
+
+		// Inverts every other frame, as it would while scanning.
+		mStretchInvert = new LumaPreprocessor();
+		mStretchInvert.setThresholdEnabled(false);
+		miss(mStretchInvert);
+
+		mStretchThreshold = new LumaPreprocessor();
+		mStretchThreshold.setInversionEnabled(false);
+		miss(mStretchThreshold);
+	}
+
+	private static void miss(LumaPreprocessor preprocessor) {
+		for (int i = 0; i < 16; i++) {
+			preprocessor.onScanResult(false);
+		}
+	}
+
+	@Benchmark
+	public byte[] copyOnly() {
+		System.arraycopy(mFaded, 0, mFrame, 0, PIXELS);
+		return mFrame;
+	}
+
+	@Benchmark
+	public int stretch() {
+		System.arraycopy(mFaded, 0, mFrame, 0, PIXELS);
+		return mStretch.process(mFrame, WIDTH, HEIGHT);
+	}
+
+	@Benchmark
+	public int stretchInvert() {
+		System.arraycopy(mDark, 0, mFrame, 0, PIXELS);
+		return mStretchInvert.process(mFrame, WIDTH, HEIGHT);
+	}
+
+	@Benchmark
+	public int stretchThreshold() {
+		System.arraycopy(mLowContrast, 0, mFrame, 0, PIXELS);
+		return mStretchThreshold.process(mFrame, WIDTH, HEIGHT);
+	}
+}